@@ -0,0 +1,71 @@
+package nfcore.nftest.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes and formats the MD5 digests shared by the listing and filtering
+ * functions, so that digests of the same content computed in different
+ * ways, such as {@code listToMD5()} of filtered lines and the digest of
+ * filtered output, are equal.
+ */
+final class Digests {
+
+  /** Mask converting a signed byte to its unsigned value. */
+  private static final int BYTE_MASK = 0xff;
+
+  /** Number of bits in a hexadecimal digit. */
+  private static final int HEX_DIGIT_BITS = 4;
+
+  /** Mask of a hexadecimal digit. */
+  private static final int HEX_DIGIT_MASK = 0xf;
+
+  /** The hexadecimal digits. */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private Digests() {
+  }
+
+  /**
+   * Creates an MD5 digest.
+   *
+   * @return The digest.
+   */
+  static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("MD5 algorithm not available", e);
+    }
+  }
+
+  /**
+   * Adds a string to a digest, encoded as UTF-8.
+   *
+   * @param digest The digest.
+   * @param value The string.
+   */
+  static void update(final MessageDigest digest, final String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Formats a digest in lowercase hexadecimal.
+   *
+   * @param digest The digest.
+   * @return The hexadecimal string.
+   */
+  static String toHex(final byte[] digest) {
+    char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      int b = digest[i] & BYTE_MASK;
+      hex[2 * i] = HEX_DIGITS[b >>> HEX_DIGIT_BITS];
+      hex[2 * i + 1] = HEX_DIGITS[b & HEX_DIGIT_MASK];
+    }
+    return new String(hex);
+  }
+}
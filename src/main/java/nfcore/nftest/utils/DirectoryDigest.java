@@ -0,0 +1,129 @@
+package nfcore.nftest.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines the digests of listed files into a Merkle-style digest of each
+ * directory, so that a whole output tree can be snapshotted as one hash and
+ * a changed file shows up in the hashes of the directories above it.
+ *
+ * <p>The digest of a directory is the MD5 of one line per child, in the
+ * order of their names: its type ({@code d} for a directory, {@code f} for
+ * a file, {@code l} for a link to a directory that is not followed,
+ * {@code b} for a broken link), its digest and its name. Directories are
+ * described by the files they contain, so a directory without any listed
+ * file is left out.
+ */
+final class DirectoryDigest {
+
+  /** Key of the digest of the root directory. */
+  static final String ROOT = ".";
+
+  /** Child value of a broken link. */
+  private static final Object BROKEN = new Object();
+
+  /** A directory and its listed children. */
+  private static final class Node {
+
+    /**
+     * The children by name: a {@link Node} for a directory, the MD5 of a
+     * file, {@link #BROKEN} for a broken link, or {@code null} for a link
+     * to a directory.
+     */
+    private final Map<String, Object> children = new TreeMap<>();
+  }
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private DirectoryDigest() {
+  }
+
+  /**
+   * Computes the digests of the directories of a listing.
+   *
+   * @param entries The files, as described by
+   *     {@link FileDigester#describe(java.nio.file.Path, List, int)}.
+   * @param depth The depth of the deepest directories whose digest is
+   *     returned, {@code 0} for the root only.
+   * @return The digests of the directories down to {@code depth}, by path
+   *     relative to the root, the root being {@link #ROOT}.
+   */
+  static TreeMap<String, String> of(
+      final List<Map<String, Object>> entries,
+      final int depth) {
+    if (depth < 0) {
+      throw new IllegalArgumentException(
+        "Depth must not be negative: " + depth);
+    }
+    Node root = new Node();
+    for (Map<String, Object> entry : entries) {
+      String[] names = ((String) entry.get("path")).split("/");
+      Node parent = root;
+      for (int i = 0; i < names.length - 1; i++) {
+        parent = (Node) parent.children
+          .computeIfAbsent(names[i], name -> new Node());
+      }
+      Object value = entry.get("md5");
+      if (Boolean.TRUE.equals(entry.get("broken"))) {
+        value = BROKEN;
+      }
+      parent.children.put(names[names.length - 1], value);
+    }
+
+    TreeMap<String, String> digests = new TreeMap<>();
+    digest(root, ROOT, 0, depth, Digests.md5(), digests);
+    return digests;
+  }
+
+  /**
+   * Computes the digest of a directory from those of its children.
+   *
+   * @param node The directory.
+   * @param path The path of the directory.
+   * @param level The depth of the directory.
+   * @param depth The depth of the deepest directories whose digest is kept.
+   * @param md5 The digest to use, reset before each directory.
+   * @param digests The digests kept.
+   * @return The digest of the directory.
+   */
+  private static String digest(
+      final Node node,
+      final String path,
+      final int level,
+      final int depth,
+      final MessageDigest md5,
+      final Map<String, String> digests) {
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, Object> child : node.children.entrySet()) {
+      String name = child.getKey();
+      Object value = child.getValue();
+      if (value instanceof Node) {
+        String childPath = name;
+        if (level > 0) {
+          childPath = path + "/" + name;
+        }
+        lines.append("d ").append(digest(
+            (Node) value, childPath, level + 1, depth, md5, digests));
+      } else if (value == null) {
+        lines.append("l -");
+      } else if (value == BROKEN) {
+        lines.append("b -");
+      } else {
+        lines.append("f ").append(value);
+      }
+      lines.append(' ').append(name).append('\n');
+    }
+    md5.reset();
+    String hash = Digests.toHex(
+        md5.digest(lines.toString().getBytes(StandardCharsets.UTF_8)));
+    if (level <= depth) {
+      digests.put(path, hash);
+    }
+    return hash;
+  }
+}
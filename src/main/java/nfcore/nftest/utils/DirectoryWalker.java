@@ -0,0 +1,659 @@
+package nfcore.nftest.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a directory tree and collects the files and directories selected by
+ * two predicates, either sequentially or listing directories in parallel.
+ *
+ * <p>Both walks see the same entries as {@link Files#walkFileTree}: symbolic
+ * links are not followed, so they are reported as files, and the root
+ * directory itself is offered to the directory predicate. The order of the
+ * result is unspecified, callers sort it.
+ *
+ * <p>The parallel walk lists sibling directories at the same time on a
+ * bounded fork-join pool, which pays off on network filesystems where each
+ * listing and {@code stat} call is slow.
+ *
+ * <p>The entries can also be streamed lazily in the order of their path
+ * relative to the root, see {@link #walkSorted()}.
+ *
+ * <p>Subtrees whose entries are all excluded, such as {@code work/} for an
+ * ignore glob {@code work/**}, are not walked at all: the directory itself is
+ * still offered to the directory predicate, but its content is skipped.
+ *
+ * <p>Walkers created to follow links see the same entries as
+ * {@link Files#walkFileTree} with {@link FileVisitOption#FOLLOW_LINKS}: a
+ * link to a directory is walked as a directory, unless the directory is
+ * one of its own ancestors, identified by its file key, in which case the
+ * link is reported as a file. Broken links are reported as files too.
+ */
+final class DirectoryWalker {
+
+  /** Default number of threads of the parallel walk. */
+  static final int DEFAULT_PARALLELISM = Math.min(
+      64, 4 * Runtime.getRuntime().availableProcessors());
+
+  /** Suffix of the globs excluding a whole subtree. */
+  private static final String SUBTREE_SUFFIX = "/**";
+
+  /** How long idle threads of the parallel walk are kept, in seconds. */
+  private static final long KEEP_ALIVE_SECONDS = 10;
+
+  /** The root of the walk. */
+  private final Path root;
+
+  /** Selects the non-directory entries to collect. */
+  private final Predicate<Path> fileFilter;
+
+  /** Selects the directories to collect, including the root. */
+  private final Predicate<Path> directoryFilter;
+
+  /** Selects the directories, other than the root, not to descend into. */
+  private final Predicate<Path> pruneFilter;
+
+  /** Whether links are followed. */
+  private final boolean followLinks;
+
+  /**
+   * Creates a walker. The predicates receive paths resolved against the
+   * root, as {@link Files#walkFileTree} would, and must be thread-safe for
+   * parallel walks.
+   *
+   * @param walkRoot The root of the walk.
+   * @param files Selects the non-directory entries to collect.
+   * @param directories Selects the directories to collect.
+   * @param prune Selects the directories whose content is not walked,
+   *     typically {@link #excludedSubtrees(Path, List)}. It is never applied
+   *     to the root.
+   */
+  DirectoryWalker(
+      final Path walkRoot,
+      final Predicate<Path> files,
+      final Predicate<Path> directories,
+      final Predicate<Path> prune) {
+    this(walkRoot, files, directories, prune, false);
+  }
+
+  /**
+   * Creates a walker that may follow links.
+   *
+   * @param walkRoot The root of the walk.
+   * @param files Selects the non-directory entries to collect.
+   * @param directories Selects the directories to collect.
+   * @param prune Selects the directories whose content is not walked.
+   * @param follow Whether links to directories are walked.
+   */
+  DirectoryWalker(
+      final Path walkRoot,
+      final Predicate<Path> files,
+      final Predicate<Path> directories,
+      final Predicate<Path> prune,
+      final boolean follow) {
+    this.root = walkRoot;
+    this.fileFilter = files;
+    this.directoryFilter = directories;
+    this.pruneFilter = prune;
+    this.followLinks = follow;
+  }
+
+  /**
+   * Builds the predicate of the directories whose whole content is excluded
+   * by ignore globs: for a glob {@code P/**}, every path below a directory
+   * whose relative path matches {@code P} is excluded, so the directory does
+   * not need to be walked. Globs of another form never prune.
+   *
+   * @param walkRoot The root the globs are relative to.
+   * @param ignoreGlobs The ignore globs, {@code null} or empty ones are
+   *     skipped.
+   * @return The predicate, applied to paths resolved against the root.
+   */
+  static Predicate<Path> excludedSubtrees(
+      final Path walkRoot,
+      final List<String> ignoreGlobs) {
+    List<String> prefixes = subtreePrefixes(ignoreGlobs);
+    if (prefixes.isEmpty()) {
+      return dir -> false;
+    }
+    GlobFilter prefixFilter = GlobFilter.of(prefixes, null);
+    return dir -> prefixFilter.matches(walkRoot.relativize(dir).toString());
+  }
+
+  /**
+   * Extracts the prefixes {@code P} of the ignore globs of the form
+   * {@code P/**}, which exclude everything below the paths matching
+   * {@code P}.
+   *
+   * @param ignoreGlobs The ignore globs, {@code null} or empty ones are
+   *     skipped.
+   * @return The prefix globs.
+   */
+  static List<String> subtreePrefixes(final List<String> ignoreGlobs) {
+    List<String> prefixes = new ArrayList<>();
+    for (String glob : ignoreGlobs) {
+      if (glob == null || !glob.endsWith(SUBTREE_SUFFIX)
+          || glob.length() == SUBTREE_SUFFIX.length()) {
+        continue;
+      }
+      String prefix =
+          glob.substring(0, glob.length() - SUBTREE_SUFFIX.length());
+      try {
+        GlobFilter.toRegex(prefix);
+      } catch (IllegalArgumentException e) {
+        // The suffix closes a group or an escape of the glob, so the glob
+        // is not of the P/** form: do not prune with it
+        continue;
+      }
+      prefixes.add(prefix);
+    }
+    return prefixes;
+  }
+
+  /**
+   * Walks the tree and collects the selected entries.
+   *
+   * @param parallelism The number of threads listing directories, or
+   *     {@code 1} to walk the tree sequentially.
+   * @return The selected entries, in no particular order.
+   * @throws IOException If a directory or an entry cannot be read.
+   */
+  List<Path> walk(final int parallelism) throws IOException {
+    if (parallelism <= 1) {
+      return walkSequentially();
+    }
+    BasicFileAttributes attributes = readAttributes(root);
+    List<Path> selected = new ArrayList<>();
+    if (!attributes.isDirectory()) {
+      // A root that is a file, or a link that is not followed, is not walked
+      if (fileFilter.test(root)) {
+        selected.add(root);
+      }
+      return selected;
+    }
+    if (directoryFilter.test(root)) {
+      selected.add(root);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(
+        parallelism,
+        ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+        (thread, error) -> System.err.println(
+          "Error listing " + root + ": " + error.getMessage()),
+        false,
+        0,
+        parallelism,
+        1,
+        busyPool -> true,
+        KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS);
+    try {
+      selected.addAll(pool.invoke(
+          new ListTask(this, root, enter(null, root, attributes))));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+    return selected;
+  }
+
+  /**
+   * Streams the selected entries lazily, sorted by their path relative to
+   * the root as strings, which is also the order of their full paths.
+   *
+   * <p>Only the entries of the directories reached so far are held: a
+   * directory is listed once the stream reaches its position in the
+   * order. Since every path below {@code dir} starts with {@code dir/},
+   * these paths sort after {@code dir/} and before any other path greater
+   * than {@code dir/}, so a pending directory is keyed by {@code dir/} in
+   * a priority queue of the entries not returned yet.
+   *
+   * @return The stream of selected entries. Errors reading a directory are
+   *     thrown as {@link UncheckedIOException}.
+   * @throws IOException If the root cannot be read.
+   */
+  Stream<Path> walkSorted() throws IOException {
+    BasicFileAttributes attributes = readAttributes(root);
+    SortedIterator iterator = new SortedIterator();
+    // A root that is a file, or a link that is not followed, is not walked
+    Ancestors content = null;
+    if (attributes.isDirectory()) {
+      content = enter(null, root, attributes);
+    }
+    iterator.queue("", root, attributes.isDirectory(), false, content);
+    return StreamSupport.stream(
+      Spliterators.spliteratorUnknownSize(
+        iterator,
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL),
+      false);
+  }
+
+  /**
+   * Lists the selected entries from a listing index, in the order of
+   * {@link #walkSorted()}. The tree is only walked if its index is missing
+   * or out of date. Like a full walk, the index does not prune subtrees,
+   * but the entries below pruned directories are excluded by the filters
+   * anyway.
+   *
+   * @param index The listing index.
+   * @return The stream of selected entries.
+   * @throws IOException If the tree cannot be walked.
+   */
+  Stream<Path> walkIndexed(final ListingIndex index) throws IOException {
+    if (followLinks) {
+      // The index is only checked against the directories of the tree, not
+      // against the targets of its links
+      return walkSorted();
+    }
+    ListingIndex.Listing listing = index.list(root);
+    if (listing == null) {
+      // A root that is not a directory is not indexed
+      return walkSorted();
+    }
+    List<Path> selected = new ArrayList<>();
+    int i = 0;
+    for (String relative : listing.getPaths()) {
+      Path entry = root.resolve(relative);
+      if (listing.isDirectory(i)) {
+        if (directoryFilter.test(entry)) {
+          selected.add(entry);
+        }
+      } else if (fileFilter.test(entry)) {
+        selected.add(entry);
+      }
+      i++;
+    }
+    return selected.stream();
+  }
+
+  /**
+   * Reads the attributes of an entry, following links if enabled. A link
+   * that cannot be followed is described by its own attributes.
+   *
+   * @param entry The entry.
+   * @return The attributes.
+   * @throws IOException If the entry cannot be read.
+   */
+  private BasicFileAttributes readAttributes(final Path entry)
+      throws IOException {
+    if (followLinks) {
+      try {
+        return Files.readAttributes(entry, BasicFileAttributes.class);
+      } catch (IOException e) {
+        // A broken link, or a link to itself
+        return Files.readAttributes(
+            entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      }
+    }
+    return Files.readAttributes(
+        entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+  }
+
+  /**
+   * Enters a directory when walking the tree.
+   *
+   * @param ancestors The directories above the directory, or {@code null}
+   *     for the root.
+   * @param directory The directory.
+   * @param attributes The attributes of the directory.
+   * @return The directories above the content of the directory, or
+   *     {@code null} if links are followed and the directory is one of its
+   *     own ancestors.
+   * @throws IOException If the real path of the directory cannot be read.
+   */
+  private Ancestors enter(
+      final Ancestors ancestors,
+      final Path directory,
+      final BasicFileAttributes attributes)
+      throws IOException {
+    if (!followLinks) {
+      // Without links, the tree has no cycle
+      return Ancestors.UNTRACKED;
+    }
+    Object key = attributes.fileKey();
+    if (key == null) {
+      key = directory.toRealPath();
+    }
+    for (Ancestors ancestor = ancestors;
+        ancestor != null;
+        ancestor = ancestor.parent) {
+      if (ancestor.key.equals(key)) {
+        return null;
+      }
+    }
+    return new Ancestors(key, ancestors);
+  }
+
+  /**
+   * The file keys of a directory and of the directories above it, to detect
+   * links to an ancestor.
+   */
+  private static final class Ancestors {
+
+    /** The chain of a walk that does not follow links. */
+    private static final Ancestors UNTRACKED =
+        new Ancestors(new Object(), null);
+
+    /** The file key of the directory. */
+    private final Object key;
+
+    /** The directories above, or {@code null} for the root. */
+    private final Ancestors parent;
+
+    /**
+     * Adds a directory to a chain.
+     *
+     * @param fileKey The file key of the directory.
+     * @param above The directories above, or {@code null} for the root.
+     */
+    private Ancestors(final Object fileKey, final Ancestors above) {
+      this.key = fileKey;
+      this.parent = above;
+    }
+  }
+
+  /**
+   * An entry waiting in the queue of {@link SortedIterator}.
+   */
+  private static final class Pending {
+
+    /** Order of the entries, by key then entries before listings. */
+    private static final Comparator<Pending> ORDER = Comparator
+        .comparing((Pending pending) -> pending.key)
+        .thenComparing(pending -> pending.listing);
+
+    /**
+     * The path relative to the root of an entry, or that of a directory
+     * followed by {@code /} for a listing.
+     */
+    private final String key;
+
+    /** The entry, or the directory to list. */
+    private final Path path;
+
+    /** Whether the entry is a directory. */
+    private final boolean directory;
+
+    /** Whether the directory is to be listed rather than returned. */
+    private final boolean listing;
+
+    /** The directories above the content of a listing. */
+    private final Ancestors ancestors;
+
+    /**
+     * Creates a pending entry or listing.
+     *
+     * @param sortKey The key ordering the queue.
+     * @param entry The entry, or the directory to list.
+     * @param isDirectory Whether the entry is a directory.
+     * @param isListing Whether the directory is to be listed.
+     * @param content The directories above the content of a listing.
+     */
+    private Pending(
+        final String sortKey,
+        final Path entry,
+        final boolean isDirectory,
+        final boolean isListing,
+        final Ancestors content) {
+      this.key = sortKey;
+      this.path = entry;
+      this.directory = isDirectory;
+      this.listing = isListing;
+      this.ancestors = content;
+    }
+  }
+
+  /**
+   * Iterates over the selected entries in order, listing directories when
+   * their turn comes.
+   */
+  private final class SortedIterator implements Iterator<Path> {
+
+    /** The entries and listings not processed yet. */
+    private final PriorityQueue<Pending> pending =
+        new PriorityQueue<>(Pending.ORDER);
+
+    /** The next selected entry, or {@code null} if not found yet. */
+    private Path next;
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && !pending.isEmpty()) {
+        Pending head = pending.poll();
+        if (head.listing) {
+          list(head);
+        } else if (head.directory) {
+          if (directoryFilter.test(head.path)) {
+            next = head.path;
+          }
+        } else if (fileFilter.test(head.path)) {
+          next = head.path;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Path next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Path entry = next;
+      next = null;
+      return entry;
+    }
+
+    /**
+     * Queues an entry, and the listing of its content if it is a directory
+     * that is not pruned.
+     *
+     * @param key The path of the entry relative to the root.
+     * @param entry The entry.
+     * @param isDirectory Whether the entry is a directory.
+     * @param prune Whether the content of a directory is skipped.
+     * @param content The directories above the content of a directory.
+     */
+    private void queue(
+        final String key,
+        final Path entry,
+        final boolean isDirectory,
+        final boolean prune,
+        final Ancestors content) {
+      pending.add(new Pending(key, entry, isDirectory, false, null));
+      if (isDirectory && !prune) {
+        String listingKey = key;
+        if (!key.isEmpty()) {
+          listingKey = key + "/";
+        }
+        pending.add(new Pending(listingKey, entry, true, true, content));
+      }
+    }
+
+    /**
+     * Lists a directory and queues its entries.
+     *
+     * @param directory The pending listing.
+     */
+    private void list(final Pending directory) {
+      try (DirectoryStream<Path> entries =
+          Files.newDirectoryStream(directory.path)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes = readAttributes(entry);
+          Ancestors content = null;
+          if (attributes.isDirectory()) {
+            content = enter(directory.ancestors, entry, attributes);
+          }
+          // A link to one of its own ancestors is reported as a file
+          boolean isDirectory = content != null;
+          queue(
+            directory.key + entry.getFileName(),
+            entry,
+            isDirectory,
+            isDirectory && pruneFilter.test(entry),
+            content);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Walks the tree on the calling thread.
+   *
+   * @return The selected entries, in walk order.
+   * @throws IOException If a directory or an entry cannot be read.
+   */
+  private List<Path> walkSequentially() throws IOException {
+    List<Path> selected = new ArrayList<>();
+    Set<FileVisitOption> options = Collections.emptySet();
+    if (followLinks) {
+      options = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+    }
+    Files.walkFileTree(
+        root,
+        options,
+        Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(
+              final Path file,
+              final BasicFileAttributes attrs) {
+            if (fileFilter.test(file)) {
+              selected.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(
+              final Path file,
+              final IOException exc)
+              throws IOException {
+            if (!(exc instanceof FileSystemLoopException)) {
+              throw exc;
+            }
+            // A link to one of its own ancestors is reported as a file
+            if (fileFilter.test(file)) {
+              selected.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult preVisitDirectory(
+              final Path dir,
+              final BasicFileAttributes attrs) {
+            if (directoryFilter.test(dir)) {
+              selected.add(dir);
+            }
+            if (!dir.equals(root) && pruneFilter.test(dir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return selected;
+  }
+
+  /**
+   * Lists one directory, forking a task for each subdirectory so that
+   * siblings are listed at the same time.
+   */
+  private static final class ListTask extends RecursiveTask<List<Path>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The walker selecting the entries. */
+    private final transient DirectoryWalker walker;
+
+    /** The directory to list. */
+    private final transient Path directory;
+
+    /** The directories above the content of the directory. */
+    private final transient Ancestors ancestors;
+
+    /**
+     * Creates the task of a directory.
+     *
+     * @param directoryWalker The walker selecting the entries.
+     * @param dir The directory to list.
+     * @param content The directories above the content of the directory.
+     */
+    private ListTask(
+        final DirectoryWalker directoryWalker,
+        final Path dir,
+        final Ancestors content) {
+      this.walker = directoryWalker;
+      this.directory = dir;
+      this.ancestors = content;
+    }
+
+    /**
+     * Lists the directory and collects the selected entries of its subtree.
+     *
+     * @return The selected entries.
+     */
+    @Override
+    protected List<Path> compute() {
+      List<Path> selected = new ArrayList<>();
+      List<ListTask> subtasks = new ArrayList<>();
+      try (DirectoryStream<Path> entries =
+          Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes = walker.readAttributes(entry);
+          Ancestors content = null;
+          if (attributes.isDirectory()) {
+            content = walker.enter(ancestors, entry, attributes);
+          }
+          // A link to one of its own ancestors is reported as a file
+          if (content != null) {
+            if (walker.directoryFilter.test(entry)) {
+              selected.add(entry);
+            }
+            if (!walker.pruneFilter.test(entry)) {
+              ListTask subtask = new ListTask(walker, entry, content);
+              subtask.fork();
+              subtasks.add(subtask);
+            }
+          } else if (walker.fileFilter.test(entry)) {
+            selected.add(entry);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (ListTask subtask : subtasks) {
+        selected.addAll(subtask.join());
+      }
+      return selected;
+    }
+  }
+}
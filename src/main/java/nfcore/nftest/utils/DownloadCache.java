@@ -0,0 +1,548 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Local cache of the files downloaded by {@code downloadFromS3}, skipping
+ * the transfer of a file already downloaded.
+ *
+ * <p>Files are kept in a tree mirroring their bucket and key, and each one
+ * is recorded in an entry holding its size, its modification time and the
+ * entity tag of the object when it is known. A file is reused while it is
+ * unchanged locally and, when the size and entity tag of the object can be
+ * read, while they are the ones recorded. Without them, as for files that
+ * are not on S3 or buckets listed without credentials, a file is reused
+ * as long as it is unchanged locally.
+ *
+ * <p>Files are downloaded to a temporary file renamed once complete, so a
+ * failed or concurrent download never leaves a partial file in place. The
+ * least recently used files are deleted once the total size of the cache
+ * exceeds a limit.
+ */
+final class DownloadCache {
+
+  /** Default limit of the total size of the cached files, 10 GiB. */
+  static final long DEFAULT_MAX_SIZE = 10_737_418_240L;
+
+  /** Default number of files downloaded at the same time. */
+  static final int DEFAULT_PARALLELISM = 8;
+
+  /** Directory of the entries, below the cache directory. */
+  private static final String ENTRIES = ".entries";
+
+  /** Extension of the entries. */
+  private static final String EXTENSION = ".entry";
+
+  /** First bytes of an entry, "NFTD". */
+  private static final int MAGIC = 0x4e465444;
+
+  /** Version of the format of the entries. */
+  private static final int VERSION = 1;
+
+  /** Length of the URI scheme separator. */
+  private static final int SCHEME_SEPARATOR_LENGTH = 3;
+
+  /** The directory holding the cached files. */
+  private final Path directory;
+
+  /** Limit of the total size of the cached files, in bytes. */
+  private final long maxSize;
+
+  /** Whether cached files are reused. */
+  private final boolean reuse;
+
+  /**
+   * Copies a remote file to a local file.
+   */
+  interface Transfer {
+
+    /**
+     * Copies a remote file.
+     *
+     * @param uri The URI of the remote file.
+     * @param target The local file to write, which does not exist.
+     * @throws IOException If the copy fails.
+     * @throws InterruptedException If interrupted while copying.
+     */
+    void copy(String uri, Path target)
+        throws IOException, InterruptedException;
+  }
+
+  /**
+   * Reads the size and entity tag of a remote file.
+   */
+  interface Metadata {
+
+    /**
+     * Describes a remote file.
+     *
+     * @param uri The URI of the remote file.
+     * @return The object with its size and entity tag, or {@code null} if
+     *     they cannot be read.
+     * @throws InterruptedException If interrupted while reading them.
+     */
+    S3Client.S3Object describe(String uri) throws InterruptedException;
+  }
+
+  /** A cached file, as recorded in its entry. */
+  private static final class Entry {
+
+    /** The path of the file, relative to the cache directory. */
+    private final String path;
+
+    /** The size in bytes. */
+    private final long size;
+
+    /** The modification time, in milliseconds. */
+    private final long modified;
+
+    /** The entity tag of the object, empty if unknown. */
+    private final String etag;
+
+    /**
+     * Records a cached file.
+     *
+     * @param relativePath The path relative to the cache directory.
+     * @param bytes The size in bytes.
+     * @param modifiedMillis The modification time, in milliseconds.
+     * @param entityTag The entity tag, empty if unknown.
+     */
+    private Entry(
+        final String relativePath,
+        final long bytes,
+        final long modifiedMillis,
+        final String entityTag) {
+      this.path = relativePath;
+      this.size = bytes;
+      this.modified = modifiedMillis;
+      this.etag = entityTag;
+    }
+  }
+
+  /**
+   * Uses files cached in a directory.
+   *
+   * @param cacheDirectory The directory holding the cached files, created
+   *     if needed.
+   * @param maxTotalSize Limit of the total size of the cached files, in
+   *     bytes.
+   * @param reuseFiles Whether cached files are reused, or downloaded again.
+   */
+  DownloadCache(
+      final Path cacheDirectory,
+      final long maxTotalSize,
+      final boolean reuseFiles) {
+    this.directory = cacheDirectory;
+    this.maxSize = maxTotalSize;
+    this.reuse = reuseFiles;
+  }
+
+  /**
+   * Reads the {@code downloadCache} and {@code downloadCacheMaxSize}
+   * options of {@code downloadFromS3}.
+   *
+   * @param options The options.
+   * @return The cache.
+   * @throws IllegalArgumentException If an option is invalid.
+   */
+  static DownloadCache fromOptions(final Map<String, Object> options) {
+    Object enabled = options.getOrDefault("downloadCache", true);
+    Path cacheDirectory;
+    if (enabled instanceof Boolean) {
+      cacheDirectory = Paths.get(
+        System.getProperty("java.io.tmpdir"), "nft-utils-cloud");
+    } else {
+      cacheDirectory = Paths.get(enabled.toString());
+    }
+
+    Number maxSizeOption = (Number) options.get("downloadCacheMaxSize");
+    long maxTotalSize = DEFAULT_MAX_SIZE;
+    if (maxSizeOption != null) {
+      if (maxSizeOption.longValue() <= 0) {
+        throw new IllegalArgumentException(
+          "The 'downloadCacheMaxSize' option must be positive: "
+          + maxSizeOption);
+      }
+      maxTotalSize = maxSizeOption.longValue();
+    }
+    return new DownloadCache(
+      cacheDirectory, maxTotalSize, !Boolean.FALSE.equals(enabled));
+  }
+
+  /**
+   * Returns the local copy of a remote file, downloading it unless a valid
+   * copy is cached.
+   *
+   * @param uri The URI of the remote file.
+   * @param metadata Reads the size and entity tag of the remote file.
+   * @param transfer Downloads the remote file.
+   * @return The local file.
+   * @throws IOException If the file cannot be downloaded or cached.
+   * @throws InterruptedException If interrupted while downloading.
+   */
+  Path fetch(
+      final String uri,
+      final Metadata metadata,
+      final Transfer transfer)
+      throws IOException, InterruptedException {
+    String relativePath = localPath(uri);
+    Path file = directory.resolve(relativePath).normalize();
+    Path parent = file.getParent();
+    if (parent == null || !parent.startsWith(directory.normalize())) {
+      throw new IllegalArgumentException(
+        "The URI does not name a file below its bucket: " + uri);
+    }
+    Path entryFile = directory.resolve(ENTRIES)
+        .resolve(ListingIndex.fileName(uri, EXTENSION));
+
+    S3Client.S3Object remote = metadata.describe(uri);
+    if (reuse && isValid(read(entryFile), file, remote)) {
+      // Mark the file as recently used
+      ListingIndex.touch(entryFile);
+      return file;
+    }
+
+    Files.createDirectories(parent);
+    Path temporary = Files.createTempFile(
+        parent, "." + file.getFileName(), ".part");
+    try {
+      // The transfer creates the file itself
+      Files.delete(temporary);
+      transfer.copy(uri, temporary);
+      long size = Files.size(temporary);
+      if (remote != null && remote.getSize() != size) {
+        throw new IOException(
+          "Downloaded " + size + " bytes instead of " + remote.getSize()
+          + " from " + uri);
+      }
+      Files.move(
+          temporary, file,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    String etag = "";
+    if (remote != null) {
+      etag = remote.getETag();
+    }
+    write(entryFile, new Entry(
+        relativePath, Files.size(file),
+        Files.getLastModifiedTime(file).toMillis(), etag));
+    evict(entryFile);
+    return file;
+  }
+
+  /**
+   * Returns the local copies of remote files, downloading those that are
+   * not cached, at most {@code parallelism} at the same time. Every file is
+   * fetched even if others fail.
+   *
+   * @param uris The URIs of the remote files, possibly repeated.
+   * @param parallelism The number of files downloaded at the same time.
+   * @param metadata Reads the size and entity tag of the remote files.
+   * @param transfer Downloads a remote file.
+   * @return The local files, in the order of the URIs.
+   * @throws IOException If some files cannot be downloaded, listing each
+   *     of them in its message, their failures being suppressed
+   *     exceptions.
+   * @throws InterruptedException If interrupted while downloading.
+   */
+  List<Path> fetchAll(
+      final List<String> uris,
+      final int parallelism,
+      final Metadata metadata,
+      final Transfer transfer)
+      throws IOException, InterruptedException {
+    Map<String, Download> downloads = new LinkedHashMap<>();
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      for (String uri : uris) {
+        if (!downloads.containsKey(uri)) {
+          Download download = new Download(this, uri, metadata, transfer);
+          pool.execute(download);
+          downloads.put(uri, download);
+        }
+      }
+      List<Exception> failures = new ArrayList<>();
+      StringBuilder message = new StringBuilder();
+      for (Download download : downloads.values()) {
+        download.join();
+        if (download.failure instanceof InterruptedException) {
+          throw (InterruptedException) download.failure;
+        } else if (download.failure != null) {
+          failures.add(download.failure);
+          message.append("\n  ").append(download.uri).append(": ")
+              .append(download.failure.getMessage());
+        }
+      }
+      if (!failures.isEmpty()) {
+        IOException error = new IOException(
+            "Failed to download " + failures.size() + " of "
+            + downloads.size() + " files:" + message);
+        for (Exception failure : failures) {
+          error.addSuppressed(failure);
+        }
+        throw error;
+      }
+
+      List<Path> files = new ArrayList<>(uris.size());
+      for (String uri : uris) {
+        files.add(downloads.get(uri).file);
+      }
+      return files;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Fetches a file, recording its failure instead of throwing it, so that
+   * the failures of all the files can be reported together.
+   */
+  private static final class Download extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The cache. */
+    private final transient DownloadCache cache;
+
+    /** The URI of the remote file. */
+    private final String uri;
+
+    /** Reads the size and entity tag of the remote file. */
+    private final transient Metadata metadata;
+
+    /** Downloads the remote file. */
+    private final transient Transfer transfer;
+
+    /** The local file, once fetched. */
+    private transient Path file;
+
+    /** The failure, if the file could not be fetched. */
+    private Exception failure;
+
+    /**
+     * Creates the download of a file.
+     *
+     * @param downloadCache The cache.
+     * @param remoteUri The URI of the remote file.
+     * @param remoteMetadata Reads the size and entity tag of the file.
+     * @param remoteTransfer Downloads the file.
+     */
+    private Download(
+        final DownloadCache downloadCache,
+        final String remoteUri,
+        final Metadata remoteMetadata,
+        final Transfer remoteTransfer) {
+      this.cache = downloadCache;
+      this.uri = remoteUri;
+      this.metadata = remoteMetadata;
+      this.transfer = remoteTransfer;
+    }
+
+    /**
+     * Fetches the file.
+     */
+    @Override
+    protected void compute() {
+      try {
+        file = cache.fetch(uri, metadata, transfer);
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * Returns the path of the local copy of a remote file.
+   *
+   * @param uri The URI of the remote file.
+   * @return The bucket and key of the file, as a relative path.
+   */
+  private static String localPath(final String uri) {
+    int schemeEnd = uri.indexOf("://");
+    if (schemeEnd >= 0) {
+      return uri.substring(schemeEnd + SCHEME_SEPARATOR_LENGTH);
+    }
+    return uri;
+  }
+
+  /**
+   * Tells whether a cached file can be reused.
+   *
+   * @param entry The entry of the file, or {@code null}.
+   * @param file The cached file.
+   * @param remote The remote file, or {@code null} if unknown.
+   * @return {@code true} if the file is unchanged since it was downloaded
+   *     and, if known, matches the remote file.
+   */
+  private static boolean isValid(
+      final Entry entry,
+      final Path file,
+      final S3Client.S3Object remote) {
+    if (entry == null) {
+      return false;
+    }
+    try {
+      if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)
+          || Files.size(file) != entry.size
+          || Files.getLastModifiedTime(file).toMillis() != entry.modified) {
+        return false;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return remote == null
+        || remote.getSize() == entry.size
+        && remote.getETag().equals(entry.etag);
+  }
+
+  /**
+   * Reads an entry.
+   *
+   * @param entryFile The file of the entry.
+   * @return The entry, or {@code null} if it is missing or unreadable.
+   */
+  private static Entry read(final Path entryFile) {
+    if (!Files.isRegularFile(entryFile)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(entryFile)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return null;
+      }
+      return new Entry(
+        input.readUTF(), input.readLong(), input.readLong(),
+        input.readUTF());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes an entry atomically.
+   *
+   * @param entryFile The file of the entry.
+   * @param entry The entry.
+   * @throws IOException If the entry cannot be written.
+   */
+  private void write(final Path entryFile, final Entry entry)
+      throws IOException {
+    Path entries = directory.resolve(ENTRIES);
+    Files.createDirectories(entries);
+    Path temporary = Files.createTempFile(entries, "entry-", ".tmp");
+    try {
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(entry.path);
+        output.writeLong(entry.size);
+        output.writeLong(entry.modified);
+        output.writeUTF(entry.etag);
+      }
+      Files.move(
+          temporary, entryFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Deletes the least recently used files until the total size of the
+   * cached files is within the limit. Failures are only logged, since the
+   * download itself succeeded.
+   *
+   * @param kept The entry of the file just downloaded, which is kept.
+   */
+  private void evict(final Path kept) {
+    List<Path> entryFiles = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+        directory.resolve(ENTRIES), "*" + EXTENSION)) {
+      for (Path entryFile : stream) {
+        entryFiles.add(entryFile);
+      }
+    } catch (IOException e) {
+      System.err.println(
+        "Warning: failed to list the download cache " + directory + ": "
+        + e.getMessage());
+      return;
+    }
+
+    List<Entry> entries = new ArrayList<>();
+    List<Long> used = new ArrayList<>();
+    long total = 0;
+    for (Path entryFile : entryFiles) {
+      Entry entry = read(entryFile);
+      long usedMillis;
+      try {
+        usedMillis = Files.getLastModifiedTime(entryFile).toMillis();
+      } catch (IOException e) {
+        // Entries deleted meanwhile are evicted first
+        usedMillis = 0;
+      }
+      entries.add(entry);
+      used.add(usedMillis);
+      if (entry != null) {
+        total += entry.size;
+      }
+    }
+    if (total <= maxSize) {
+      return;
+    }
+
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < entryFiles.size(); i++) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparing(used::get));
+    for (int i : order) {
+      if (total <= maxSize) {
+        break;
+      }
+      Path entryFile = entryFiles.get(i);
+      Entry entry = entries.get(i);
+      if (entryFile.equals(kept)) {
+        continue;
+      }
+      try {
+        if (entry == null) {
+          Files.deleteIfExists(entryFile);
+          continue;
+        }
+        Files.deleteIfExists(directory.resolve(entry.path));
+        Files.deleteIfExists(entryFile);
+        total -= entry.size;
+      } catch (IOException e) {
+        System.err.println(
+          "Warning: failed to evict " + entryFile + " from the download "
+          + "cache: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Sorts lines within a memory budget, removing duplicates.
+ *
+ * <p>Lines are buffered in memory until their estimated size exceeds the
+ * budget. The buffer is then sorted and written to a temporary file as a
+ * sorted run, and the runs are merged when the lines are read back. Lines
+ * are compared with {@link String#compareTo(String)}, so the result is the
+ * same as sorting them all in memory. Runs hold the characters of the lines
+ * as they are, so that lines with malformed text, such as unpaired
+ * surrogates, are not altered by an encoding. At most
+ * {@link #MAX_MERGED_RUNS} runs are open at the same time, more runs being
+ * merged into fewer, longer ones first.
+ */
+final class ExternalLineSorter implements Closeable {
+
+  /** Default memory budget for the buffered lines, 64 MiB. */
+  static final long DEFAULT_MEMORY_LIMIT = 67_108_864L;
+
+  /** Estimated memory used by a buffered line besides its characters. */
+  private static final long LINE_OVERHEAD = 64;
+
+  /** Size of the buffers used to write and read runs. */
+  private static final int IO_BUFFER_SIZE = 65_536;
+
+  /** Maximum number of runs merged at the same time. */
+  static final int MAX_MERGED_RUNS = 64;
+
+  /** Memory budget for the buffered lines, in bytes. */
+  private final long memoryLimit;
+
+  /** Lines buffered since the last spill. */
+  private List<String> buffer = new ArrayList<>();
+
+  /** Estimated memory used by the buffered lines. */
+  private long bufferedBytes;
+
+  /** Sorted runs written to disk. */
+  private final List<Run> runs = new ArrayList<>();
+
+  /** A sorted run of lines spilled to a temporary file. */
+  private static final class Run {
+
+    /** The temporary file. */
+    private final Path file;
+
+    /** Number of lines in the file. */
+    private final long lines;
+
+    /**
+     * Records a run.
+     *
+     * @param runFile The temporary file.
+     * @param runLines Number of lines in the file.
+     */
+    private Run(final Path runFile, final long runLines) {
+      this.file = runFile;
+      this.lines = runLines;
+    }
+  }
+
+  /** Receives the lines of a merge. */
+  @FunctionalInterface
+  private interface LineConsumer {
+
+    /**
+     * Receives a line.
+     *
+     * @param line The line.
+     * @throws IOException If the line cannot be written.
+     */
+    void accept(String line) throws IOException;
+  }
+
+  /** Writer of a run to a new temporary file. */
+  private static final class RunWriter implements Closeable {
+
+    /** The temporary file. */
+    private final Path file;
+
+    /** The stream of the run. */
+    private final DataOutputStream output;
+
+    /** Number of lines written. */
+    private long lines;
+
+    /**
+     * Creates the temporary file of a run.
+     *
+     * @throws IOException If the file cannot be created.
+     */
+    private RunWriter() throws IOException {
+      this.file = Files.createTempFile("nft-utils-sort-", ".run");
+      try {
+        this.output = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file), IO_BUFFER_SIZE));
+      } catch (IOException e) {
+        deleteQuietly(file);
+        throw e;
+      }
+    }
+
+    /**
+     * Writes a line, as its length followed by its characters.
+     *
+     * @param line The line.
+     * @throws IOException If the line cannot be written.
+     */
+    private void write(final String line) throws IOException {
+      output.writeInt(line.length());
+      output.writeChars(line);
+      lines++;
+    }
+
+    /**
+     * Closes the file and returns the run written.
+     *
+     * @return The run.
+     * @throws IOException If the file cannot be written.
+     */
+    private Run finish() throws IOException {
+      output.close();
+      return new Run(file, lines);
+    }
+
+    /**
+     * Closes the file and deletes it, after a failure.
+     */
+    @Override
+    public void close() {
+      try {
+        output.close();
+      } catch (IOException e) {
+        // The file is deleted anyway
+        file.toFile().deleteOnExit();
+      }
+      deleteQuietly(file);
+    }
+  }
+
+  /** Reader of a run during the merge, positioned on its next line. */
+  private static final class RunReader implements Closeable {
+
+    /** The stream of the run. */
+    private final DataInputStream input;
+
+    /** Number of lines left to read after {@link #head}. */
+    private long remaining;
+
+    /** The next line of the run. */
+    private String head;
+
+    /**
+     * Opens a run and reads its first line.
+     *
+     * @param run The run to read.
+     * @throws IOException If the run cannot be read.
+     */
+    private RunReader(final Run run) throws IOException {
+      this.input = new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(run.file), IO_BUFFER_SIZE));
+      this.remaining = run.lines;
+      advance();
+    }
+
+    /**
+     * Moves to the next line of the run.
+     *
+     * @return {@code false} if the run is exhausted.
+     * @throws IOException If the run cannot be read.
+     */
+    private boolean advance() throws IOException {
+      if (remaining == 0) {
+        head = null;
+        return false;
+      }
+      char[] chars = new char[input.readInt()];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = input.readChar();
+      }
+      head = new String(chars);
+      remaining--;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+
+  /**
+   * Creates a sorter with the default memory budget.
+   */
+  ExternalLineSorter() {
+    this(DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * Creates a sorter.
+   *
+   * @param memoryLimitBytes Estimated memory, in bytes, the buffered lines
+   *     may use before they are spilled to disk.
+   */
+  ExternalLineSorter(final long memoryLimitBytes) {
+    this.memoryLimit = memoryLimitBytes;
+  }
+
+  /**
+   * Adds a line, spilling the buffered lines to disk if the memory budget is
+   * exceeded.
+   *
+   * @param line The line to sort.
+   */
+  void add(final String line) {
+    buffer.add(line);
+    bufferedBytes += LINE_OVERHEAD + 2L * line.length();
+    if (bufferedBytes > memoryLimit) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of sorted runs written to disk so far.
+   *
+   * @return The number of runs.
+   */
+  int getRunCount() {
+    return runs.size();
+  }
+
+  /**
+   * Sorts the buffered lines and writes them to a temporary file, without
+   * duplicates.
+   */
+  private void spill() {
+    Collections.sort(buffer);
+    RunWriter writer = null;
+    try {
+      writer = new RunWriter();
+      String previous = null;
+      for (String line : buffer) {
+        if (!line.equals(previous)) {
+          writer.write(line);
+          previous = line;
+        }
+      }
+      runs.add(writer.finish());
+    } catch (IOException e) {
+      if (writer != null) {
+        writer.close();
+      }
+      throw new RuntimeException(
+        "Failed to spill sorted lines to disk: " + e.getMessage(), e);
+    }
+    buffer = new ArrayList<>();
+    bufferedBytes = 0;
+  }
+
+  /**
+   * Passes all the lines added, sorted and without duplicates, to a
+   * consumer. The temporary files are deleted afterwards.
+   *
+   * @param consumer The consumer receiving each line.
+   */
+  void forEachSorted(final Consumer<String> consumer) {
+    try {
+      if (runs.isEmpty()) {
+        Collections.sort(buffer);
+        String previous = null;
+        for (String line : buffer) {
+          if (!line.equals(previous)) {
+            consumer.accept(line);
+            previous = line;
+          }
+        }
+      } else {
+        if (!buffer.isEmpty()) {
+          spill();
+        }
+        try {
+          while (runs.size() > MAX_MERGED_RUNS) {
+            mergeOldestRuns();
+          }
+          merge(runs, consumer::accept);
+        } catch (IOException e) {
+          throw new RuntimeException(
+            "Failed to merge sorted lines: " + e.getMessage(), e);
+        }
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Merges the {@link #MAX_MERGED_RUNS} oldest runs into a new run, and
+   * deletes them.
+   *
+   * @throws IOException If a run cannot be read or written.
+   */
+  private void mergeOldestRuns() throws IOException {
+    List<Run> oldest = new ArrayList<>(runs.subList(0, MAX_MERGED_RUNS));
+    RunWriter writer = new RunWriter();
+    try {
+      merge(oldest, writer::write);
+      runs.add(writer.finish());
+    } catch (IOException | RuntimeException e) {
+      writer.close();
+      throw e;
+    }
+    runs.subList(0, MAX_MERGED_RUNS).clear();
+    for (Run run : oldest) {
+      deleteQuietly(run.file);
+    }
+  }
+
+  /**
+   * Merges sorted runs, removing duplicates across runs.
+   *
+   * @param merged The runs to merge.
+   * @param consumer The consumer receiving each line.
+   * @throws IOException If a run cannot be read, or a line written.
+   */
+  private static void merge(
+      final List<Run> merged,
+      final LineConsumer consumer)
+      throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(
+        Math.max(1, merged.size()), (a, b) -> a.head.compareTo(b.head));
+    // The run taken from the queue, closed on failure too
+    RunReader reader = null;
+    try {
+      for (Run run : merged) {
+        reader = new RunReader(run);
+        if (reader.head == null) {
+          reader.close();
+        } else {
+          queue.add(reader);
+        }
+        reader = null;
+      }
+      String previous = null;
+      while (!queue.isEmpty()) {
+        reader = queue.poll();
+        if (!reader.head.equals(previous)) {
+          consumer.accept(reader.head);
+          previous = reader.head;
+        }
+        if (reader.advance()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+        reader = null;
+      }
+    } finally {
+      List<RunReader> open = new ArrayList<>(queue);
+      if (reader != null) {
+        open.add(reader);
+      }
+      for (RunReader run : open) {
+        try {
+          run.close();
+        } catch (IOException e) {
+          // Do not fail the merge if closing a run fails; just log it
+          System.err.println(
+            "Warning: failed to close sorted run: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Discards the buffered lines and deletes the temporary files.
+   */
+  @Override
+  public void close() {
+    buffer = new ArrayList<>();
+    bufferedBytes = 0;
+    for (Run run : runs) {
+      deleteQuietly(run.file);
+    }
+    runs.clear();
+  }
+
+  /**
+   * Deletes a temporary file, ignoring failures.
+   *
+   * @param file The file, or {@code null}.
+   */
+  private static void deleteQuietly(final Path file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      file.toFile().deleteOnExit();
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package nfcore.nftest.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the size and MD5 digest of the content of many files in
+ * parallel, as {@code md5} does in nf-test one file at a time.
+ *
+ * <p>Each thread reads files through a {@link FileChannel} into its own
+ * direct buffer and updates its own {@link MessageDigest}, both reused from
+ * one file to the next.
+ *
+ * <p>Entries with the same file key (device and inode), such as links to
+ * the same file in {@code work/}, are read once: the first thread to reach
+ * the file hashes it, the others wait for its result.
+ */
+final class FileDigester {
+
+  /** Default number of files hashed at the same time. */
+  static final int DEFAULT_PARALLELISM =
+      Runtime.getRuntime().availableProcessors();
+
+  /** Size of the read buffer of each thread. */
+  private static final int BUFFER_SIZE = 1_048_576;
+
+  /** The buffer and digest of a thread. */
+  private static final class Hasher {
+
+    /** The read buffer. */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** The MD5 digest. */
+    private final MessageDigest md5;
+
+    /**
+     * Creates the buffer and digest of a thread.
+     */
+    private Hasher() {
+      this.md5 = Digests.md5();
+    }
+  }
+
+  /** The size and digest of the content of a file. */
+  private static final class Content {
+
+    /** The size in bytes. */
+    private final long size;
+
+    /** The hex MD5. */
+    private final String md5;
+
+    /**
+     * Creates the description of a content.
+     *
+     * @param bytes The size in bytes.
+     * @param digest The hex MD5.
+     */
+    private Content(final long bytes, final String digest) {
+      this.size = bytes;
+      this.md5 = digest;
+    }
+  }
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private FileDigester() {
+  }
+
+  /**
+   * Describes listed entries by their relative path and, for files, their
+   * size and the MD5 digest of their content. Links are followed, like
+   * {@code md5} in nf-test, and a link to a directory is described as a
+   * directory. A broken link, such as a published link into a cleaned
+   * {@code work/} directory, is described as {@code broken}.
+   *
+   * @param root The directory the paths are relative to.
+   * @param entries The entries, in the order of the result.
+   * @param parallelism The number of files hashed at the same time.
+   * @return For each entry, a map with its {@code path} and, for a file,
+   *     its {@code size} in bytes and its hex {@code md5}, or for a broken
+   *     link, {@code broken} set to {@code true}.
+   * @throws IOException If a file cannot be read.
+   */
+  static List<Map<String, Object>> describe(
+      final Path root,
+      final List<Path> entries,
+      final int parallelism)
+      throws IOException {
+    // Filled by index, so that parallel threads never resize it
+    List<Map<String, Object>> descriptions =
+        new ArrayList<>(Collections.nCopies(entries.size(), null));
+    Map<Object, FutureTask<Content>> contents = new ConcurrentHashMap<>();
+    if (parallelism <= 1) {
+      Hasher hasher = new Hasher();
+      try {
+        for (int i = 0; i < entries.size(); i++) {
+          descriptions.set(i,
+            describe(root, entries.get(i), hasher, contents));
+        }
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    } else {
+      ThreadLocal<Hasher> hashers = ThreadLocal.withInitial(Hasher::new);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        // A parallel stream started from a pool task runs in that pool
+        pool.submit(() -> IntStream
+          .range(0, entries.size())
+          .parallel()
+          .forEach(i -> descriptions.set(i,
+            describe(root, entries.get(i), hashers.get(), contents))))
+          .get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(
+          "Interrupted while hashing files in " + root, e);
+      } catch (ExecutionException e) {
+        rethrow(e.getCause());
+      } finally {
+        pool.shutdown();
+      }
+    }
+    return descriptions;
+  }
+
+  /**
+   * Describes one entry.
+   *
+   * @param root The directory the path is relative to.
+   * @param entry The entry.
+   * @param hasher The buffer and digest of the current thread.
+   * @param contents The contents hashed or being hashed, by file key.
+   * @return The description of the entry.
+   */
+  private static Map<String, Object> describe(
+      final Path root,
+      final Path entry,
+      final Hasher hasher,
+      final Map<Object, FutureTask<Content>> contents) {
+    Map<String, Object> description = new LinkedHashMap<>();
+    description.put("path", root.relativize(entry).toString());
+    Content content;
+    try {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+      } catch (FileSystemException e) {
+        // A link to a missing file, or a loop of links, has no content
+        if (Files.isSymbolicLink(entry)) {
+          description.put("broken", true);
+          return description;
+        }
+        throw e;
+      }
+      if (attributes.isDirectory()) {
+        return description;
+      }
+      FutureTask<Content> task = new FutureTask<>(() -> hash(entry, hasher));
+      Object key = attributes.fileKey();
+      FutureTask<Content> hashed = null;
+      if (key != null) {
+        hashed = contents.putIfAbsent(key, task);
+      }
+      if (hashed == null) {
+        task.run();
+        hashed = task;
+      }
+      content = hashed.get();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while hashing " + entry, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) e.getCause());
+      }
+      throw new RuntimeException(
+        "Error hashing " + entry + ": " + e.getCause().getMessage(),
+        e.getCause());
+    }
+    description.put("size", content.size);
+    description.put("md5", content.md5);
+    return description;
+  }
+
+  /**
+   * Hashes the content of a file.
+   *
+   * @param file The file.
+   * @param hasher The buffer and digest of the current thread.
+   * @return The size and digest of the content.
+   * @throws IOException If the file cannot be read.
+   */
+  private static Content hash(final Path file, final Hasher hasher)
+      throws IOException {
+    long size = 0;
+    MessageDigest md5 = hasher.md5;
+    ByteBuffer buffer = hasher.buffer;
+    md5.reset();
+    try (FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer.clear();
+      int read;
+      while ((read = channel.read(buffer)) >= 0) {
+        size += read;
+        buffer.flip();
+        md5.update(buffer);
+        buffer.clear();
+      }
+    }
+    return new Content(size, Digests.toHex(md5.digest()));
+  }
+
+  /**
+   * Rethrows the failure of a parallel task.
+   *
+   * @param failure The failure.
+   * @throws IOException If the task failed reading a file.
+   */
+  private static void rethrow(final Throwable failure) throws IOException {
+    if (failure instanceof UncheckedIOException) {
+      throw ((UncheckedIOException) failure).getCause();
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    throw new RuntimeException(failure);
+  }
+}
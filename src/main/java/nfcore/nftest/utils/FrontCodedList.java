@@ -0,0 +1,296 @@
+package nfcore.nftest.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of strings stored front-coded, for listings of millions of
+ * paths that share long prefixes.
+ *
+ * <p>Strings are grouped in blocks of {@link #BLOCK_SIZE}. The first string
+ * of a block is stored in full, each following one as the length of the
+ * prefix it shares with its predecessor and the remaining characters. All
+ * the blocks are packed in one byte array, with lengths and characters
+ * written as variable-length integers, so ASCII paths take one byte per
+ * character that is not shared with the previous path.
+ *
+ * <p>{@link #get(int)} decodes at most one block. Iterating decodes each
+ * string once from the previous one. Sorted input, such as a directory
+ * listing, compresses best.
+ */
+public final class FrontCodedList extends AbstractList<String>
+    implements RandomAccess {
+
+  /** Number of strings per block. */
+  static final int BLOCK_SIZE = 16;
+
+  /** Bits of a byte holding the value of a variable-length integer. */
+  private static final int VARINT_BITS = 7;
+
+  /** Mask of the value bits of a variable-length integer byte. */
+  private static final int VARINT_MASK = 0x7f;
+
+  /** Flag of a variable-length integer byte followed by another one. */
+  private static final int VARINT_MORE = 0x80;
+
+  /** Maximum number of bytes of a variable-length integer. */
+  private static final int MAX_VARINT_BYTES = 5;
+
+  /** Initial size of the buffer of decoded characters. */
+  private static final int INITIAL_CHARS = 64;
+
+  /** The encoded blocks. */
+  private final byte[] data;
+
+  /** Offset in {@link #data} of each block. */
+  private final int[] blockOffsets;
+
+  /** Number of strings. */
+  private final int size;
+
+  /**
+   * Creates a list from encoded blocks.
+   *
+   * @param encoded The encoded blocks.
+   * @param offsets Offset of each block.
+   * @param count Number of strings.
+   */
+  private FrontCodedList(
+      final byte[] encoded,
+      final int[] offsets,
+      final int count) {
+    this.data = encoded;
+    this.blockOffsets = offsets;
+    this.size = count;
+  }
+
+  /**
+   * Builds a list from strings.
+   *
+   * @param strings The strings, best sorted.
+   * @return The list.
+   */
+  public static FrontCodedList of(final Iterable<String> strings) {
+    Builder builder = new Builder();
+    for (String string : strings) {
+      builder.add(string);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(final int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(
+        "Index " + index + " out of bounds for length " + size);
+    }
+    Decoder decoder = new Decoder(blockOffsets[index / BLOCK_SIZE]);
+    for (int i = index - index % BLOCK_SIZE; i < index; i++) {
+      decoder.skip();
+    }
+    return decoder.next();
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new SequentialIterator();
+  }
+
+  /**
+   * Returns the number of bytes used by the encoded strings.
+   *
+   * @return The size of the encoded data.
+   */
+  long encodedSize() {
+    return data.length + (long) Integer.BYTES * blockOffsets.length;
+  }
+
+  /**
+   * Iterates over the strings, decoding each one from the previous one.
+   */
+  private final class SequentialIterator implements Iterator<String> {
+
+    /** The decoder of the current block. */
+    private final Decoder decoder = new Decoder(0);
+
+    /** Index of the next string. */
+    private int index;
+
+    @Override
+    public boolean hasNext() {
+      return index < size;
+    }
+
+    @Override
+    public String next() {
+      if (index >= size) {
+        throw new NoSuchElementException();
+      }
+      if (index % BLOCK_SIZE == 0) {
+        decoder.position = blockOffsets[index / BLOCK_SIZE];
+      }
+      index++;
+      return decoder.next();
+    }
+  }
+
+  /**
+   * Reads the strings of a block one after the other.
+   */
+  private final class Decoder {
+
+    /** Offset of the next string in {@link #data}. */
+    private int position;
+
+    /** Characters of the last string decoded. */
+    private char[] chars = new char[INITIAL_CHARS];
+
+    /** Number of characters of the last string decoded. */
+    private int length;
+
+    /**
+     * Creates a decoder at the start of a block.
+     *
+     * @param offset Offset of the block.
+     */
+    private Decoder(final int offset) {
+      this.position = offset;
+    }
+
+    /**
+     * Decodes the next string into the buffer.
+     */
+    private void skip() {
+      int shared = readVarint();
+      int suffix = readVarint();
+      length = shared + suffix;
+      if (length > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(length, chars.length * 2));
+      }
+      for (int i = shared; i < length; i++) {
+        chars[i] = (char) readVarint();
+      }
+    }
+
+    /**
+     * Decodes the next string.
+     *
+     * @return The string.
+     */
+    private String next() {
+      skip();
+      return new String(chars, 0, length);
+    }
+
+    /**
+     * Reads a variable-length integer.
+     *
+     * @return The integer.
+     */
+    private int readVarint() {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = data[position++];
+        value |= (b & VARINT_MASK) << shift;
+        shift += VARINT_BITS;
+      } while ((b & VARINT_MORE) != 0);
+      return value;
+    }
+  }
+
+  /**
+   * Accumulates strings into a {@link FrontCodedList}.
+   */
+  static final class Builder {
+
+    /** Initial capacity of the encoded data. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The encoded blocks so far. */
+    private byte[] data = new byte[INITIAL_CAPACITY];
+
+    /** Number of bytes used in {@link #data}. */
+    private int used;
+
+    /** Offset of each block so far. */
+    private int[] blockOffsets = new int[BLOCK_SIZE];
+
+    /** Number of strings added. */
+    private int count;
+
+    /** The last string added. */
+    private String previous = "";
+
+    /**
+     * Adds a string at the end of the list.
+     *
+     * @param string The string.
+     * @return This builder.
+     */
+    Builder add(final String string) {
+      int shared = 0;
+      if (count % BLOCK_SIZE == 0) {
+        int block = count / BLOCK_SIZE;
+        if (block == blockOffsets.length) {
+          blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+        }
+        blockOffsets[block] = used;
+      } else {
+        int max = Math.min(previous.length(), string.length());
+        while (shared < max
+            && previous.charAt(shared) == string.charAt(shared)) {
+          shared++;
+        }
+      }
+      writeVarint(shared);
+      writeVarint(string.length() - shared);
+      for (int i = shared; i < string.length(); i++) {
+        writeVarint(string.charAt(i));
+      }
+      previous = string;
+      count++;
+      return this;
+    }
+
+    /**
+     * Builds the list of the strings added so far.
+     *
+     * @return The list.
+     */
+    FrontCodedList build() {
+      int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      return new FrontCodedList(
+        Arrays.copyOf(data, used),
+        Arrays.copyOf(blockOffsets, blocks),
+        count);
+    }
+
+    /**
+     * Writes a variable-length integer.
+     *
+     * @param value The non-negative integer.
+     */
+    private void writeVarint(final int value) {
+      if (used + MAX_VARINT_BYTES > data.length) {
+        data = Arrays.copyOf(
+          data, Math.max(used + MAX_VARINT_BYTES, data.length * 2));
+      }
+      int remaining = value;
+      while ((remaining & ~VARINT_MASK) != 0) {
+        data[used++] = (byte) ((remaining & VARINT_MASK) | VARINT_MORE);
+        remaining >>>= VARINT_BITS;
+      }
+      data[used++] = (byte) remaining;
+    }
+  }
+}
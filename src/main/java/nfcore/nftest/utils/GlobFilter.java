@@ -0,0 +1,340 @@
+package nfcore.nftest.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Include and ignore glob sets compiled into a single regular expression,
+ * so that selecting a relative path costs one match whatever the number of
+ * globs.
+ *
+ * <p>Each glob is translated as the default filesystem translates
+ * {@code glob:} patterns on Unix, with {@code /} as the name separator, and
+ * the translations are combined into
+ * {@code (?!(?:ignore1|ignore2|...)\z)(?:include1|include2|...)}: a path is
+ * selected when it matches one of the include globs and none of the ignore
+ * globs, exactly as with one {@link java.nio.file.PathMatcher} per glob.
+ *
+ * <p>Compiled filters are cached process-wide by their globs, so listing
+ * calls repeating the same globs, typically those of an ignore file, do not
+ * compile them again.
+ */
+final class GlobFilter {
+
+  /** Regular expression metacharacters escaped when literal. */
+  private static final String REGEX_META_CHARS = ".^$+{[]|()";
+
+  /** Glob metacharacters that may be escaped with a backslash. */
+  private static final String GLOB_META_CHARS = "\\*?[{";
+
+  /** Returned by {@link #next(String, int)} past the end of the glob. */
+  private static final char EOL = 0;
+
+  /** Regular expression matching no path, for empty include sets. */
+  private static final String NOTHING = "(?!)";
+
+  /** Regular expression matching every path, for missing include sets. */
+  private static final String EVERYTHING = "(?s:.*)";
+
+  /** Maximum number of compiled filters kept. */
+  static final int MAX_CACHED_FILTERS = 64;
+
+  /** The compiled filters, by include and ignore globs. */
+  private static final LruCache<List<List<String>>, GlobFilter> CACHE =
+      new LruCache<>(MAX_CACHED_FILTERS);
+
+  /** The combined expression. */
+  private final Pattern pattern;
+
+  /**
+   * Compiles the globs.
+   *
+   * @param combined The combined expression.
+   */
+  private GlobFilter(final Pattern combined) {
+    this.pattern = combined;
+  }
+
+  /**
+   * Compiles include and ignore globs, or returns the cached filter of the
+   * same globs. {@code null} globs are skipped.
+   *
+   * @param includeGlobs Paths must match one of these globs, an empty list
+   *     selects nothing; {@code null} selects every path not ignored.
+   * @param ignoreGlobs Paths matching any of these globs are not selected.
+   * @return The filter.
+   * @throws PatternSyntaxException If a glob is invalid.
+   */
+  static GlobFilter of(
+      final List<String> includeGlobs,
+      final List<String> ignoreGlobs) {
+    // Copy the globs, the caller may modify its lists afterwards
+    List<List<String>> key =
+        Arrays.asList(copy(includeGlobs), copy(ignoreGlobs));
+    GlobFilter cached = CACHE.get(key);
+    if (cached == null) {
+      cached = compile(includeGlobs, ignoreGlobs);
+      CACHE.put(key, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * Compiles include and ignore globs, without caching.
+   *
+   * @param includeGlobs Paths must match one of these globs, or
+   *     {@code null} to select every path not ignored.
+   * @param ignoreGlobs Paths matching any of these globs are not selected.
+   * @return The filter.
+   * @throws PatternSyntaxException If a glob is invalid.
+   */
+  private static GlobFilter compile(
+      final List<String> includeGlobs,
+      final List<String> ignoreGlobs) {
+    StringBuilder regex = new StringBuilder();
+    String ignore = alternation(ignoreGlobs);
+    if (ignore != null) {
+      regex.append("(?!(?:").append(ignore).append(")\\z)");
+    }
+    if (includeGlobs == null) {
+      regex.append(EVERYTHING);
+    } else {
+      String include = alternation(includeGlobs);
+      if (include == null) {
+        regex.append(NOTHING);
+      } else {
+        regex.append("(?:").append(include).append(')');
+      }
+    }
+    return new GlobFilter(Pattern.compile(regex.toString()));
+  }
+
+  /**
+   * Tells whether a relative path is selected.
+   *
+   * @param relativePath The path relative to the root the globs apply to,
+   *     with {@code /} separators, as returned by {@code Path.toString()}.
+   * @return {@code true} if the path matches an include glob and no ignore
+   *     glob.
+   */
+  boolean matches(final String relativePath) {
+    return pattern.matcher(relativePath).matches();
+  }
+
+  /**
+   * Copies a list of globs.
+   *
+   * @param globs The globs, possibly {@code null}.
+   * @return The copy, or {@code null}.
+   */
+  private static List<String> copy(final List<String> globs) {
+    if (globs == null) {
+      return null;
+    }
+    return new ArrayList<>(globs);
+  }
+
+  /**
+   * Returns the number of cached filters.
+   *
+   * @return The number of filters.
+   */
+  static int cacheSize() {
+    return CACHE.size();
+  }
+
+  /**
+   * Joins the translations of globs with {@code |}.
+   *
+   * @param globs The globs, possibly {@code null}.
+   * @return The alternation, or {@code null} if there are no globs.
+   */
+  private static String alternation(final List<String> globs) {
+    if (globs == null) {
+      return null;
+    }
+    StringBuilder regex = new StringBuilder();
+    for (String glob : globs) {
+      if (glob == null) {
+        continue;
+      }
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      regex.append("(?:").append(toRegex(glob)).append(')');
+    }
+    if (regex.length() == 0) {
+      return null;
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Returns the character of a glob at an index.
+   *
+   * @param glob The glob.
+   * @param index The index.
+   * @return The character, or {@link #EOL} past the end of the glob.
+   */
+  private static char next(final String glob, final int index) {
+    if (index < glob.length()) {
+      return glob.charAt(index);
+    }
+    return EOL;
+  }
+
+  /**
+   * Translates a glob to an unanchored regular expression, following the
+   * rules of the default Unix filesystem.
+   *
+   * @param glob The glob.
+   * @return The regular expression.
+   * @throws PatternSyntaxException If the glob is invalid.
+   */
+  static String toRegex(final String glob) {
+    boolean inGroup = false;
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i++);
+      switch (c) {
+        case '\\':
+          if (i == glob.length()) {
+            throw new PatternSyntaxException(
+              "No character to escape", glob, i - 1);
+          }
+          char escaped = glob.charAt(i++);
+          if (GLOB_META_CHARS.indexOf(escaped) >= 0
+              || REGEX_META_CHARS.indexOf(escaped) >= 0) {
+            regex.append('\\');
+          }
+          regex.append(escaped);
+          break;
+        case '[':
+          i = appendClass(glob, i, regex);
+          break;
+        case '{':
+          if (inGroup) {
+            throw new PatternSyntaxException(
+              "Cannot nest groups", glob, i - 1);
+          }
+          regex.append("(?:(?:");
+          inGroup = true;
+          break;
+        case '}':
+          if (inGroup) {
+            regex.append("))");
+            inGroup = false;
+          } else {
+            regex.append('}');
+          }
+          break;
+        case ',':
+          if (inGroup) {
+            regex.append(")|(?:");
+          } else {
+            regex.append(',');
+          }
+          break;
+        case '*':
+          if (next(glob, i) == '*') {
+            // Crosses directory boundaries
+            regex.append(".*");
+            i++;
+          } else {
+            regex.append("[^/]*");
+          }
+          break;
+        case '?':
+          regex.append("[^/]");
+          break;
+        default:
+          if (REGEX_META_CHARS.indexOf(c) >= 0) {
+            regex.append('\\');
+          }
+          regex.append(c);
+      }
+    }
+    if (inGroup) {
+      throw new PatternSyntaxException("Missing '}'", glob, i - 1);
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Translates a bracket expression, which never matches the separator.
+   *
+   * @param glob The glob.
+   * @param start Index following the opening bracket.
+   * @param regex The regular expression to append to.
+   * @return Index following the closing bracket.
+   * @throws PatternSyntaxException If the bracket expression is invalid.
+   */
+  private static int appendClass(
+      final String glob,
+      final int start,
+      final StringBuilder regex) {
+    int i = start;
+    regex.append("[[^/]&&[");
+    if (next(glob, i) == '^') {
+      // Escape the regex negation character
+      regex.append("\\^");
+      i++;
+    } else {
+      if (next(glob, i) == '!') {
+        regex.append('^');
+        i++;
+      }
+      // A hyphen is allowed first
+      if (next(glob, i) == '-') {
+        regex.append('-');
+        i++;
+      }
+    }
+    boolean hasRangeStart = false;
+    char last = 0;
+    char c = 0;
+    while (i < glob.length()) {
+      c = glob.charAt(i++);
+      if (c == ']') {
+        break;
+      }
+      if (c == '/') {
+        throw new PatternSyntaxException(
+          "Explicit 'name separator' in class", glob, i - 1);
+      }
+      if (c == '\\' || c == '[' || c == '&' && next(glob, i) == '&') {
+        // Escape '\', '[' or "&&" inside the regex class
+        regex.append('\\');
+      }
+      regex.append(c);
+      if (c == '-') {
+        if (!hasRangeStart) {
+          throw new PatternSyntaxException("Invalid range", glob, i - 1);
+        }
+        // Index of the start of the range, for error messages
+        int rangeIndex = i - 2;
+        c = next(glob, i++);
+        if (c == EOL || c == ']') {
+          break;
+        }
+        if (c < last) {
+          throw new PatternSyntaxException("Invalid range", glob, rangeIndex);
+        }
+        regex.append(c);
+        hasRangeStart = false;
+      } else {
+        hasRangeStart = true;
+        last = c;
+      }
+    }
+    if (c != ']') {
+      throw new PatternSyntaxException("Missing ']'", glob, i - 1);
+    }
+    regex.append("]]");
+    return i;
+  }
+}
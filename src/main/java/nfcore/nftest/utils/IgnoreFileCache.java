@@ -0,0 +1,103 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Process-wide cache of the globs read from ignore files such as
+ * {@code .nftignore}, which a test file typically passes to many listing
+ * calls.
+ *
+ * <p>Entries are keyed by the canonical path of the file and are only reused
+ * while its size and modification time are unchanged, so an edited file is
+ * read again. The compiled form of the globs is cached by
+ * {@link GlobFilter}.
+ */
+final class IgnoreFileCache {
+
+  /** Maximum number of ignore files kept. */
+  static final int MAX_ENTRIES = 64;
+
+  /** The cached files, by canonical path. */
+  private static final LruCache<Path, IgnoreFile> FILES =
+      new LruCache<>(MAX_ENTRIES);
+
+  /** The globs of a file, and the attributes of the file they were read. */
+  private static final class IgnoreFile {
+
+    /** Size of the file, in bytes. */
+    private final long size;
+
+    /** Modification time of the file, in milliseconds. */
+    private final long modified;
+
+    /** The globs of the file. */
+    private final List<String> globs;
+
+    /**
+     * Records the globs of a file.
+     *
+     * @param fileSize Size of the file, in bytes.
+     * @param fileModified Modification time of the file, in milliseconds.
+     * @param fileGlobs The globs of the file.
+     */
+    private IgnoreFile(
+        final long fileSize,
+        final long fileModified,
+        final List<String> fileGlobs) {
+      this.size = fileSize;
+      this.modified = fileModified;
+      this.globs = fileGlobs;
+    }
+  }
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private IgnoreFileCache() {
+  }
+
+  /**
+   * Returns the glob patterns of a file, ignoring empty lines and
+   * surrounding whitespace, reading the file only if it changed since it
+   * was last read.
+   *
+   * @param filePath The path to the file containing glob patterns.
+   * @return The glob patterns, as an unmodifiable list.
+   * @throws IOException If an error occurs while reading the file.
+   */
+  static List<String> readGlobs(final String filePath) throws IOException {
+    Path file = Paths.get(filePath).toRealPath();
+    BasicFileAttributes attributes =
+        Files.readAttributes(file, BasicFileAttributes.class);
+    long size = attributes.size();
+    long modified = attributes.lastModifiedTime().toMillis();
+
+    IgnoreFile cached = FILES.get(file);
+    if (cached != null && cached.size == size && cached.modified == modified) {
+      return cached.globs;
+    }
+    List<String> globs = new ArrayList<>();
+    try (BufferedReader reader =
+        Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty()) {
+          globs.add(line);
+        }
+      }
+    }
+    List<String> unmodifiable = Collections.unmodifiableList(globs);
+    FILES.put(file, new IgnoreFile(size, modified, unmodifiable));
+    return unmodifiable;
+  }
+}
@@ -0,0 +1,487 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in on-disk index of directory listings, answering repeated listings
+ * of read-only directories, such as reference or test data, without walking
+ * them.
+ *
+ * <p>An index holds every entry below a root, whether it is a directory,
+ * and the modification time of each directory. Creating, deleting or
+ * renaming an entry changes the modification time of its parent directory,
+ * so the index is still valid as long as every directory has the same
+ * modification time: checking it costs one {@code stat} per directory,
+ * instead of listing every directory and reading the attributes of every
+ * entry. Changes to the content of files do not change a listing.
+ *
+ * <p>Indexes are written atomically, one file per root, and the least
+ * recently used ones are deleted once their total size exceeds a limit.
+ * Directories modified shortly before they are indexed are not trusted:
+ * the listing is returned but not saved, since a second change within the
+ * resolution of the modification time would go unnoticed.
+ */
+final class ListingIndex {
+
+  /** Default limit of the total size of the index files, 64 MiB. */
+  static final long DEFAULT_MAX_SIZE = 67_108_864L;
+
+  /** Extension of the index files. */
+  private static final String EXTENSION = ".idx";
+
+  /** First bytes of an index file, "NFTI". */
+  private static final int MAGIC = 0x4e465449;
+
+  /** Version of the index file format. */
+  private static final int VERSION = 1;
+
+  /** Flag of the directory entries in an index file. */
+  private static final int DIRECTORY = 1;
+
+  /** Directories modified this recently are not indexed, in seconds. */
+  private static final long RACY_SECONDS = 2;
+
+  /** Size of the buffers used to read and write index files. */
+  private static final int IO_BUFFER_SIZE = 65_536;
+
+  /** The directory holding the index files. */
+  private final Path directory;
+
+  /** Limit of the total size of the index files, in bytes. */
+  private final long maxSize;
+
+  /**
+   * The entries below a root, sorted by their path relative to the root.
+   */
+  static final class Listing {
+
+    /** Relative paths of the entries, the root being {@code ""}. */
+    private final List<String> paths;
+
+    /** Indexes of the entries that are directories. */
+    private final BitSet directories;
+
+    /**
+     * Records a listing.
+     *
+     * @param relativePaths Relative paths of the entries.
+     * @param directoryIndexes Indexes of the directories.
+     */
+    private Listing(
+        final List<String> relativePaths,
+        final BitSet directoryIndexes) {
+      this.paths = relativePaths;
+      this.directories = directoryIndexes;
+    }
+
+    /**
+     * Returns the relative paths of the entries, sorted as strings.
+     *
+     * @return The paths, the root being {@code ""}.
+     */
+    List<String> getPaths() {
+      return paths;
+    }
+
+    /**
+     * Tells whether an entry is a directory.
+     *
+     * @param index The index of the entry.
+     * @return {@code true} for a directory, {@code false} for a file or a
+     *     link.
+     */
+    boolean isDirectory(final int index) {
+      return directories.get(index);
+    }
+  }
+
+  /**
+   * Uses indexes stored in a directory.
+   *
+   * @param indexDirectory The directory holding the index files, created
+   *     if needed.
+   * @param maxTotalSize Limit of the total size of the index files, in
+   *     bytes.
+   */
+  ListingIndex(final Path indexDirectory, final long maxTotalSize) {
+    this.directory = indexDirectory;
+    this.maxSize = maxTotalSize;
+  }
+
+  /**
+   * Reads the {@code listingIndex} and {@code listingIndexMaxSize} options
+   * of the listing functions.
+   *
+   * @param options The options.
+   * @return The index, or {@code null} if it is not enabled.
+   * @throws IllegalArgumentException If an option is invalid.
+   */
+  static ListingIndex fromOptions(final Map<String, Object> options) {
+    Object enabled = options.get("listingIndex");
+    Path indexDirectory;
+    if (enabled == null || Boolean.FALSE.equals(enabled)) {
+      return null;
+    } else if (Boolean.TRUE.equals(enabled)) {
+      indexDirectory = Paths.get(
+        System.getProperty("java.io.tmpdir"), "nft-utils-listing-index");
+    } else {
+      indexDirectory = Paths.get(enabled.toString());
+    }
+
+    Number maxSizeOption = (Number) options.get("listingIndexMaxSize");
+    if (maxSizeOption == null) {
+      return new ListingIndex(indexDirectory, DEFAULT_MAX_SIZE);
+    } else if (maxSizeOption.longValue() > 0) {
+      return new ListingIndex(indexDirectory, maxSizeOption.longValue());
+    }
+    throw new IllegalArgumentException(
+      "The 'listingIndexMaxSize' option must be positive: " + maxSizeOption);
+  }
+
+  /**
+   * Lists a directory from its index if it is still valid, otherwise walks
+   * it and saves its index.
+   *
+   * @param root The directory to list.
+   * @return The listing, or {@code null} if the root is not a directory.
+   * @throws IOException If the directory cannot be walked.
+   */
+  Listing list(final Path root) throws IOException {
+    if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+      return null;
+    }
+    Path realRoot = root.toRealPath();
+    Path indexFile = directory.resolve(indexName(realRoot));
+    Listing listing = read(indexFile, realRoot);
+    if (listing != null) {
+      // Mark the index as recently used
+      touch(indexFile);
+      return listing;
+    }
+    return walk(realRoot, indexFile);
+  }
+
+  /**
+   * Reads an index file and checks that it is still valid.
+   *
+   * @param indexFile The index file.
+   * @param root The real path of the indexed directory.
+   * @return The listing, or {@code null} if there is no valid index.
+   */
+  private Listing read(final Path indexFile, final Path root) {
+    if (!Files.isRegularFile(indexFile)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(indexFile), IO_BUFFER_SIZE))) {
+      if (input.readInt() != MAGIC
+          || input.readInt() != VERSION
+          || !input.readUTF().equals(root.toString())) {
+        return null;
+      }
+      int count = input.readInt();
+      FrontCodedList.Builder paths = new FrontCodedList.Builder();
+      BitSet directories = new BitSet(count);
+      for (int i = 0; i < count; i++) {
+        int flags = input.readByte();
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        String path = new String(bytes, StandardCharsets.UTF_8);
+        paths.add(path);
+        if ((flags & DIRECTORY) != 0) {
+          directories.set(i);
+          Instant modified =
+              Instant.ofEpochSecond(input.readLong(), input.readInt());
+          if (!isUnchanged(root.resolve(path), modified)) {
+            return null;
+          }
+        }
+      }
+      return new Listing(paths.build(), directories);
+    } catch (IOException | RuntimeException e) {
+      // A corrupted or concurrently replaced index is walked again
+      return null;
+    }
+  }
+
+  /**
+   * Tells whether a directory still has the same modification time.
+   *
+   * @param dir The directory.
+   * @param modified Its modification time when it was indexed.
+   * @return {@code true} if it is still a directory modified at that time.
+   */
+  private static boolean isUnchanged(final Path dir, final Instant modified) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(
+          dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      return attributes.isDirectory()
+          && attributes.lastModifiedTime().toInstant().equals(modified);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * An entry found while walking a directory.
+   */
+  private static final class Entry {
+
+    /** Order of the entries, by relative path. */
+    private static final Comparator<Entry> ORDER =
+        Comparator.comparing(entry -> entry.path);
+
+    /** Path relative to the root. */
+    private final String path;
+
+    /** Modification time of a directory, {@code null} for other entries. */
+    private final Instant modified;
+
+    /**
+     * Records an entry.
+     *
+     * @param relativePath Path relative to the root.
+     * @param directoryModified Modification time of a directory, or
+     *     {@code null}.
+     */
+    private Entry(final String relativePath, final Instant directoryModified) {
+      this.path = relativePath;
+      this.modified = directoryModified;
+    }
+  }
+
+  /**
+   * Walks a directory and saves its index, unless it was modified too
+   * recently to be trusted.
+   *
+   * @param root The real path of the directory.
+   * @param indexFile The index file to write.
+   * @return The listing.
+   * @throws IOException If the directory cannot be walked.
+   */
+  private Listing walk(final Path root, final Path indexFile)
+      throws IOException {
+    Instant start = Instant.now();
+    List<Entry> entries = new ArrayList<>();
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(
+              final Path file,
+              final BasicFileAttributes attrs) {
+            entries.add(new Entry(root.relativize(file).toString(), null));
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult preVisitDirectory(
+              final Path dir,
+              final BasicFileAttributes attrs) {
+            // The modification time is read before listing the directory,
+            // so a change during the walk invalidates the index
+            entries.add(new Entry(
+                root.relativize(dir).toString(),
+                attrs.lastModifiedTime().toInstant()));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    entries.sort(Entry.ORDER);
+
+    FrontCodedList.Builder paths = new FrontCodedList.Builder();
+    BitSet directories = new BitSet(entries.size());
+    boolean racy = false;
+    Instant racyAfter = start.minusSeconds(RACY_SECONDS);
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      paths.add(entry.path);
+      if (entry.modified != null) {
+        directories.set(i);
+        racy |= entry.modified.isAfter(racyAfter);
+      }
+    }
+    if (!racy) {
+      save(indexFile, root, entries);
+    }
+    return new Listing(paths.build(), directories);
+  }
+
+  /**
+   * Writes an index file atomically and evicts old index files. Failures
+   * are only logged, since the listing itself succeeded.
+   *
+   * @param indexFile The index file.
+   * @param root The real path of the indexed directory.
+   * @param entries The sorted entries.
+   */
+  private void save(
+      final Path indexFile,
+      final Path root,
+      final List<Entry> entries) {
+    Path temporary = null;
+    try {
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "listing-", ".tmp");
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(
+            Files.newOutputStream(temporary), IO_BUFFER_SIZE))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(root.toString());
+        output.writeInt(entries.size());
+        for (Entry entry : entries) {
+          byte[] bytes = entry.path.getBytes(StandardCharsets.UTF_8);
+          if (entry.modified == null) {
+            output.writeByte(0);
+          } else {
+            output.writeByte(DIRECTORY);
+          }
+          output.writeInt(bytes.length);
+          output.write(bytes);
+          if (entry.modified != null) {
+            output.writeLong(entry.modified.getEpochSecond());
+            output.writeInt(entry.modified.getNano());
+          }
+        }
+      }
+      if (Files.size(temporary) > maxSize) {
+        Files.delete(temporary);
+        return;
+      }
+      Files.move(
+          temporary, indexFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+      evict(directory, EXTENSION, maxSize, indexFile);
+    } catch (IOException e) {
+      System.err.println(
+        "Warning: failed to save the listing index of " + root + ": "
+        + e.getMessage());
+    } finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+          temporary.toFile().deleteOnExit();
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used files of a cache directory until their
+   * total size is within a limit. Files are marked as used by setting their
+   * modification time with {@link #touch(Path)}.
+   *
+   * @param cacheDirectory The directory holding the cached files.
+   * @param extension The extension of the cached files.
+   * @param maxTotalSize Limit of the total size of the cached files, in
+   *     bytes.
+   * @param kept The file just written, which is kept.
+   * @throws IOException If the directory cannot be listed.
+   */
+  static void evict(
+      final Path cacheDirectory,
+      final String extension,
+      final long maxTotalSize,
+      final Path kept) throws IOException {
+    List<Path> files = new ArrayList<>();
+    long total = 0;
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(cacheDirectory, "*" + extension)) {
+      for (Path file : stream) {
+        files.add(file);
+        total += Files.size(file);
+      }
+    }
+    if (total <= maxTotalSize) {
+      return;
+    }
+    List<FileTime> times = new ArrayList<>();
+    for (Path file : files) {
+      times.add(Files.getLastModifiedTime(file));
+    }
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparing(times::get));
+    for (int i : order) {
+      if (total <= maxTotalSize) {
+        break;
+      }
+      Path file = files.get(i);
+      if (!file.equals(kept)) {
+        long size = Files.size(file);
+        if (Files.deleteIfExists(file)) {
+          total -= size;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the modification time of a cached file to now, ignoring failures.
+   *
+   * @param file The cached file.
+   */
+  static void touch(final Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      System.err.println(
+        "Warning: failed to update " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the name of the index file of a directory.
+   *
+   * @param root The real path of the directory.
+   * @return The SHA-256 of the path, in hexadecimal, with the extension.
+   */
+  private static String indexName(final Path root) {
+    return fileName(root.toString(), EXTENSION);
+  }
+
+  /**
+   * Returns the name of a cached file.
+   *
+   * @param key The key of the cached content.
+   * @param extension The extension of the cached files.
+   * @return The SHA-256 of the key, in hexadecimal, with the extension.
+   */
+  static String fileName(final String key, final String extension) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(key.getBytes(StandardCharsets.UTF_8));
+      return Digests.toHex(hash) + extension;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package nfcore.nftest.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe map keeping at most a given number of entries, evicting the
+ * least recently used one when full.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+final class LruCache<K, V> {
+
+  /** Initial capacity of the map of entries. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Load factor of the map of entries. */
+  private static final float LOAD_FACTOR = 0.75f;
+
+  /** The entries, in access order. */
+  private final Map<K, V> entries;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxEntries The maximum number of entries kept.
+   */
+  LruCache(final int maxEntries) {
+    this.entries = new BoundedMap<>(maxEntries);
+  }
+
+  /**
+   * Map in access order removing its eldest entry when full.
+   *
+   * @param <K> The type of the keys.
+   * @param <V> The type of the values.
+   */
+  private static final class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of entries kept. */
+    private final int maxEntries;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param maximum The maximum number of entries kept.
+     */
+    private BoundedMap(final int maximum) {
+      super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+      this.maxEntries = maximum;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+      return size() > maxEntries;
+    }
+  }
+
+  /**
+   * Returns the value of a key.
+   *
+   * @param key The key.
+   * @return The value, or {@code null} if the key is not cached.
+   */
+  synchronized V get(final K key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Caches the value of a key.
+   *
+   * @param key The key.
+   * @param value The value.
+   */
+  synchronized void put(final K key, final V value) {
+    entries.put(key, value);
+  }
+
+  /**
+   * Returns the number of cached entries.
+   *
+   * @return The number of entries.
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,216 @@
+package nfcore.nftest.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads the lines of a log file through a memory mapping, working on the raw
+ * UTF-8 bytes for as long as possible.
+ *
+ * <p>Line boundaries, the {@code ignore} and {@code include} strings and the
+ * ANSI escape codes are all handled on the mapped bytes, so a line is only
+ * decoded to a {@link String} once it is known to be kept. The file is mapped
+ * in windows, and a line crossing the end of a window is read again from the
+ * start of the next one.
+ */
+final class MappedLogReader {
+
+  /** Default size of the windows mapped at once, 64 MiB. */
+  static final int WINDOW_SIZE = 67_108_864;
+
+  /** Initial size of the buffer holding a selected line. */
+  private static final int INITIAL_LINE_SIZE = 256;
+
+  /** The escape byte starting an ANSI escape code. */
+  private static final byte ESC = 0x1B;
+
+  /** Matcher of the ignore and include strings, or {@code null}. */
+  private final SubstringMatcher selector;
+
+  /** Whether ANSI escape codes are kept. */
+  private final boolean keepAnsi;
+
+  /** The consumer receiving each selected line. */
+  private final Consumer<String> consumer;
+
+  /** Size of the windows mapped at once, grown for very long lines. */
+  private long window;
+
+  /** Bytes of the selected line being decoded. */
+  private byte[] line = new byte[INITIAL_LINE_SIZE];
+
+  /**
+   * Creates a reader for a single file.
+   *
+   * @param lineSelector Byte matcher of the ignore and include strings, or
+   *     {@code null} to keep every line.
+   * @param keepAnsiCodes Whether ANSI escape codes are kept.
+   * @param lineConsumer The consumer receiving each selected line.
+   * @param windowSize Size of the windows mapped at once.
+   */
+  private MappedLogReader(
+      final SubstringMatcher lineSelector,
+      final boolean keepAnsiCodes,
+      final Consumer<String> lineConsumer,
+      final int windowSize) {
+    this.selector = lineSelector;
+    this.keepAnsi = keepAnsiCodes;
+    this.consumer = lineConsumer;
+    this.window = windowSize;
+  }
+
+  /**
+   * Reads the lines separated by {@code \n} of a file, and passes those
+   * selected by the ignore and include strings to a consumer, decoded as
+   * UTF-8 and with ANSI escape codes stripped unless they are kept.
+   *
+   * @param path The file to read.
+   * @param selector Matcher created with
+   *     {@link SubstringMatcher#forBytes(java.util.List, java.util.List)},
+   *     or {@code null} to keep every line.
+   * @param keepAnsi Whether ANSI escape codes are kept.
+   * @param consumer The consumer receiving each selected line.
+   * @throws IOException If the file cannot be read.
+   */
+  static void forEachSelectedLine(
+      final Path path,
+      final SubstringMatcher selector,
+      final boolean keepAnsi,
+      final Consumer<String> consumer)
+      throws IOException {
+    forEachSelectedLine(path, selector, keepAnsi, consumer, WINDOW_SIZE);
+  }
+
+  /**
+   * Reads the selected lines of a file, mapping windows of a given size.
+   *
+   * @param path The file to read.
+   * @param selector Byte matcher of the ignore and include strings, or
+   *     {@code null} to keep every line.
+   * @param keepAnsi Whether ANSI escape codes are kept.
+   * @param consumer The consumer receiving each selected line.
+   * @param windowSize Size of the windows mapped at once.
+   * @throws IOException If the file cannot be read.
+   * @see #forEachSelectedLine(Path, SubstringMatcher, boolean, Consumer)
+   */
+  static void forEachSelectedLine(
+      final Path path,
+      final SubstringMatcher selector,
+      final boolean keepAnsi,
+      final Consumer<String> consumer,
+      final int windowSize)
+      throws IOException {
+    new MappedLogReader(selector, keepAnsi, consumer, windowSize).read(path);
+  }
+
+  /**
+   * Maps the file window by window and splits it into lines.
+   *
+   * @param path The file to read.
+   * @throws IOException If the file cannot be read, or if a line does not
+   *     fit in the largest possible window.
+   */
+  private void read(final Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(
+        path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position < size) {
+        int length = (int) Math.min(window, size - position);
+        MappedByteBuffer buffer =
+            channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+          if (buffer.get(i) == '\n') {
+            accept(buffer, start, i);
+            start = i + 1;
+          }
+        }
+
+        if (position + length == size) {
+          if (start < length) {
+            accept(buffer, start, length);
+          }
+          position = size;
+        } else if (start > 0) {
+          // Map the next window from the start of the unfinished line
+          position += start;
+        } else if (window < Integer.MAX_VALUE) {
+          window = Math.min(window * 2, Integer.MAX_VALUE);
+        } else {
+          throw new IOException("Line too long at offset " + position
+            + " of " + path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Selects, strips and decodes a single line.
+   *
+   * @param buffer The mapped window.
+   * @param from Index of the first byte of the line.
+   * @param to Index after the last byte of the line.
+   */
+  private void accept(final ByteBuffer buffer, final int from, final int to) {
+    if (selector != null && !selector.isSelected(buffer, from, to)) {
+      return;
+    }
+    if (line.length < to - from) {
+      line = Arrays.copyOf(line, Math.max(to - from, line.length * 2));
+    }
+    int length = 0;
+    int i = from;
+    while (i < to) {
+      byte b = buffer.get(i);
+      if (b == ESC && !keepAnsi) {
+        int end = ansiEnd(buffer, i, to);
+        if (end > i) {
+          i = end;
+          continue;
+        }
+      }
+      line[length++] = b;
+      i++;
+    }
+    consumer.accept(new String(line, 0, length, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Matches an ANSI escape code {@code ESC [ [0-9;]* [A-Za-z]} starting at a
+   * position, like the regular expression used on decoded lines.
+   *
+   * @param buffer The mapped window.
+   * @param from Index of the escape byte.
+   * @param to Index after the last byte of the line.
+   * @return Index after the escape code, or {@code from} if there is none.
+   */
+  private static int ansiEnd(
+      final ByteBuffer buffer,
+      final int from,
+      final int to) {
+    int i = from + 1;
+    if (i >= to || buffer.get(i) != '[') {
+      return from;
+    }
+    i++;
+    while (i < to) {
+      byte b = buffer.get(i);
+      if ((b >= '0' && b <= '9') || b == ';') {
+        i++;
+      } else if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')) {
+        return i + 1;
+      } else {
+        return from;
+      }
+    }
+    return from;
+  }
+}
@@ -3,31 +3,29 @@ package nfcore.nftest.utils;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.Comparator;
 import java.util.TreeMap;
 import java.util.Locale;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.yaml.snakeyaml.Yaml;
 
 /**
@@ -237,9 +235,16 @@ public final class Methods {
    * @param options Options controlling directory traversal and filtering.
    * @param outdir The root output directory to traverse.
    * @return A list of matching files or relative paths when {@code relative}
-   *     is enabled.
+   *     is enabled. With {@code compact}, relative paths are returned as an
+   *     immutable {@link FrontCodedList}. With {@code digest}, each entry is
+   *     returned as a map of its relative {@code path} and, for files, its
+   *     {@code size} and {@code md5}, hashing {@code parallelism} files at
+   *     the same time (all processors by default). With
+   *     {@code followLinks}, links to directories are walked, except links
+   *     to one of their own ancestors, and files reached through several
+   *     links are hashed once.
    * @throws IOException If an error occurs while traversing the directory or
-   *     reading the ignore patterns file.
+   *     reading the ignore patterns file or a file to hash.
    * @throws IllegalArgumentException If {@code outdir} is null, empty, does
    *     not exist, or is not a directory.
    */
@@ -247,25 +252,7 @@ public final class Methods {
       final LinkedHashMap<String, Object> options,
       final String outdir)
       throws IOException {
-    if (outdir == null || outdir.isEmpty()) {
-      throw new IllegalArgumentException(
-        "The 'outdir' parameter is required."
-      );
-    }
-    // Check if path exists
-    Path dirPath = Paths.get(outdir);
-    if (!Files.exists(dirPath)) {
-      throw new IllegalArgumentException(
-        "The specified path does not exist: " + outdir
-      );
-    }
-
-    // Check if it's a directory
-    if (!Files.isDirectory(dirPath)) {
-      throw new IllegalArgumentException(
-        "The specified path is not a directory: " + outdir
-      );
-    }
+    checkOutdir(outdir);
 
     // Extract optional parameters from the map (use defaults if not provided)
     Boolean includeDir = (Boolean) options
@@ -278,16 +265,83 @@ public final class Methods {
       .getOrDefault("relative", false);
     List<String> includeGlobs = (List<String>) options
       .getOrDefault("include", Arrays.asList("*", "**/*"));
+    Boolean parallel = (Boolean) options
+      .getOrDefault("parallel", false);
+    Number parallelism = (Number) options.get("parallelism");
+    Boolean compact = (Boolean) options
+      .getOrDefault("compact", false);
+    Boolean digest = (Boolean) options
+      .getOrDefault("digest", false);
+    Boolean followLinks = (Boolean) options
+      .getOrDefault("followLinks", false);
+
+    int threads = 1;
+    if (parallelism != null) {
+      threads = parallelism.intValue();
+    } else if (parallel) {
+      threads = DirectoryWalker.DEFAULT_PARALLELISM;
+    }
 
-    List<File> files = getAllFilesFromDir(
-      outdir, includeDir, ignoreGlobs,
-      ignoreFilePath, includeGlobs);
-
+    ListingIndex index = ListingIndex.fromOptions(options);
+    Path directory = Paths.get(outdir);
+    DirectoryWalker walker = directoryWalker(
+        outdir, includeDir, ignoreGlobs, ignoreFilePath, includeGlobs,
+        followLinks);
+    if (digest) {
+      List<Path> entries;
+      try (Stream<Path> paths =
+          sortedWalk(walker, directory, index, threads)) {
+        entries = paths.collect(Collectors.toList());
+      }
+      int hashThreads = FileDigester.DEFAULT_PARALLELISM;
+      if (parallelism != null) {
+        hashThreads = parallelism.intValue();
+      }
+      return FileDigester.describe(directory, entries, hashThreads);
+    }
     if (relative) {
-      return getRelativePath(files, outdir);
-    } else {
-      return files;
+      // Relative paths are built straight from the walk, without File
+      // objects
+      Stream<String> relativePaths = sortedWalk(
+          walker, directory, index, threads)
+        .map(path -> directory.relativize(path).toString());
+      if (compact) {
+        return FrontCodedList.of(relativePaths::iterator);
+      }
+      return relativePaths.collect(Collectors.toList());
+    }
+    return sortedWalk(walker, directory, index, threads)
+      .map(Path::toFile)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Walks a directory in the order of its relative paths.
+   *
+   * @param walker The walker of the directory.
+   * @param directory The directory.
+   * @param index The listing index to use, or {@code null}.
+   * @param threads Number of threads listing directories when no index is
+   *     used.
+   * @return The sorted stream of the paths found.
+   * @throws IOException If an error occurs while traversing the directory.
+   */
+  private static Stream<Path> sortedWalk(
+      final DirectoryWalker walker,
+      final Path directory,
+      final ListingIndex index,
+      final int threads)
+      throws IOException {
+    if (index != null) {
+      return walker.walkIndexed(index);
+    } else if (threads <= 1) {
+      return walker.walkSorted();
     }
+    return walker
+      .walk(threads)
+      .stream()
+      .sorted(Comparator.comparing(
+          path -> directory.relativize(path).toString()));
   }
 
   /**
@@ -313,7 +367,246 @@ public final class Methods {
       final String ignoreFilePath,
       final List<String> includeGlobs)
       throws IOException {
-    List<File> output = new ArrayList<>();
+    return getAllFilesFromDir(
+      outdir, includeDir, ignoreGlobs, ignoreFilePath, includeGlobs, 1);
+  }
+
+  /**
+   * Recursively retrieves files and optionally directories from an output
+   * directory, listing up to {@code parallelism} directories at the same
+   * time. The result is the same as with a sequential walk.
+   *
+   * @param outdir The root output directory to traverse.
+   * @param includeDir Whether directories should be included in the result.
+   * @param ignoreGlobs Glob patterns identifying files or directories to
+   *     exclude.
+   * @param ignoreFilePath Path to a file containing additional ignore glob
+   *     patterns.
+   * @param includeGlobs Glob patterns identifying files or directories to
+   *     include.
+   * @param parallelism Number of threads listing directories, {@code 1} to
+   *     walk the directory sequentially.
+   * @return A sorted list of matching files and, if enabled, directories.
+   * @throws IOException If an error occurs while traversing the directory or
+   *     reading the ignore patterns file.
+   */
+  public static List<File> getAllFilesFromDir(
+      final String outdir,
+      final boolean includeDir,
+      final List<String> ignoreGlobs,
+      final String ignoreFilePath,
+      final List<String> includeGlobs,
+      final int parallelism)
+      throws IOException {
+    List<Path> selected = directoryWalker(
+        outdir, includeDir, ignoreGlobs, ignoreFilePath, includeGlobs, false)
+        .walk(parallelism);
+
+    List<File> output = new ArrayList<>(selected.size());
+    for (Path path : selected) {
+      output.add(path.toFile());
+    }
+    return output
+      .stream()
+      .sorted(Comparator.comparing(File::getPath))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Streams files and optionally directories from an output directory,
+   * lazily and in the order of {@link #getAllFilesFromDir(LinkedHashMap,
+   * String)}. Directories are only listed as the stream reaches them, so
+   * taking the first entries of a large directory is cheap.
+   *
+   * @param outdir The root output directory to traverse.
+   * @return A sorted stream of files.
+   * @throws IOException If an error occurs while reading the directory.
+   *     Errors while streaming are thrown as
+   *     {@link java.io.UncheckedIOException}.
+   */
+  public static Stream streamAllFilesFromDir(
+      final String outdir)
+      throws IOException {
+    return streamAllFilesFromDir(new LinkedHashMap<String, Object>(), outdir);
+  }
+
+  /**
+   * Streams files and optionally directories from an output directory,
+   * lazily and in the order of {@link #getAllFilesFromDir(LinkedHashMap,
+   * String)}, using the same options except {@code parallel} and
+   * {@code parallelism}.
+   *
+   * @param options Options controlling directory traversal and filtering.
+   * @param outdir The root output directory to traverse.
+   * @return A sorted stream of files, or of relative paths when
+   *     {@code relative} is enabled.
+   * @throws IOException If an error occurs while reading the directory or
+   *     the ignore patterns file. Errors while streaming are thrown as
+   *     {@link java.io.UncheckedIOException}.
+   * @throws IllegalArgumentException If {@code outdir} is null, empty, does
+   *     not exist, or is not a directory.
+   */
+  public static Stream streamAllFilesFromDir(
+      final LinkedHashMap<String, Object> options,
+      final String outdir)
+      throws IOException {
+    checkOutdir(outdir);
+
+    Boolean includeDir = (Boolean) options
+      .getOrDefault("includeDir", false);
+    List<String> ignoreGlobs = (List<String>) options
+      .getOrDefault("ignore", new ArrayList<String>());
+    String ignoreFilePath = (String) options
+      .get("ignoreFile");
+    Boolean relative = (Boolean) options
+      .getOrDefault("relative", false);
+    List<String> includeGlobs = (List<String>) options
+      .getOrDefault("include", Arrays.asList("*", "**/*"));
+    Boolean followLinks = (Boolean) options
+      .getOrDefault("followLinks", false);
+
+    ListingIndex index = ListingIndex.fromOptions(options);
+    Path directory = Paths.get(outdir);
+    DirectoryWalker walker = directoryWalker(
+        outdir, includeDir, ignoreGlobs, ignoreFilePath, includeGlobs,
+        followLinks);
+    Stream<Path> paths;
+    if (index != null) {
+      paths = walker.walkIndexed(index);
+    } else {
+      paths = walker.walkSorted();
+    }
+    if (relative) {
+      // Relative paths are built straight from the walk, without File
+      // objects
+      return paths.map(path -> directory.relativize(path).toString());
+    }
+    return paths.map(Path::toFile);
+  }
+
+  /**
+   * Computes a Merkle-style digest of an output directory with default
+   * options.
+   *
+   * @param outdir The root output directory to traverse.
+   * @return The MD5 of the directory, as a hexadecimal string.
+   * @throws IOException If an error occurs while traversing the directory or
+   *     reading a file.
+   */
+  public static String getDirectoryDigest(final String outdir)
+      throws IOException {
+    return getDirectoryDigest(new LinkedHashMap<String, Object>(), outdir);
+  }
+
+  /**
+   * Computes a Merkle-style digest of an output directory: the MD5 of the
+   * names and digests of its children, directories being digested the same
+   * way. Files are selected with the options of
+   * {@link #getAllFilesFromDir(LinkedHashMap, String)} and hashed in
+   * parallel.
+   *
+   * @param options Options controlling directory traversal and filtering.
+   * @param outdir The root output directory to traverse.
+   * @return The MD5 of the directory, as a hexadecimal string.
+   * @throws IOException If an error occurs while traversing the directory or
+   *     reading a file.
+   * @throws IllegalArgumentException If {@code outdir} is null, empty, does
+   *     not exist, or is not a directory.
+   */
+  public static String getDirectoryDigest(
+      final LinkedHashMap<String, Object> options,
+      final String outdir)
+      throws IOException {
+    LinkedHashMap<String, Object> rootOnly = new LinkedHashMap<>(options);
+    rootOnly.put("depth", 0);
+    return getDirectoryDigests(rootOnly, outdir).get(DirectoryDigest.ROOT);
+  }
+
+  /**
+   * Computes the Merkle-style digests of an output directory and of its
+   * subdirectories, as {@link #getDirectoryDigest(LinkedHashMap, String)}
+   * does, showing which subdirectory changed. Additional option:
+   * {@code depth} – {@code Integer} depth of the deepest subdirectories
+   * returned, {@code 0} for the root only (default {@code 1}).
+   *
+   * @param options Options controlling directory traversal and filtering.
+   * @param outdir The root output directory to traverse.
+   * @return The MD5 of each directory containing selected files, down to
+   *     {@code depth}, by relative path, the root being {@code "."}.
+   * @throws IOException If an error occurs while traversing the directory or
+   *     reading a file.
+   * @throws IllegalArgumentException If {@code outdir} is null, empty, does
+   *     not exist, or is not a directory, or if {@code depth} is negative.
+   */
+  public static TreeMap<String, String> getDirectoryDigests(
+      final LinkedHashMap<String, Object> options,
+      final String outdir)
+      throws IOException {
+    Number depth = (Number) options.getOrDefault("depth", 1);
+
+    // Directories are described by the files they contain
+    LinkedHashMap<String, Object> listing = new LinkedHashMap<>(options);
+    listing.put("includeDir", false);
+    listing.put("relative", false);
+    listing.put("compact", false);
+    listing.put("digest", true);
+    List<Map<String, Object>> files = getAllFilesFromDir(listing, outdir);
+    return DirectoryDigest.of(files, depth.intValue());
+  }
+
+  /**
+   * Checks that an output directory exists.
+   *
+   * @param outdir The root output directory.
+   * @throws IllegalArgumentException If {@code outdir} is null, empty, does
+   *     not exist, or is not a directory.
+   */
+  private static void checkOutdir(final String outdir) {
+    if (outdir == null || outdir.isEmpty()) {
+      throw new IllegalArgumentException(
+        "The 'outdir' parameter is required."
+      );
+    }
+    // Check if path exists
+    Path dirPath = Paths.get(outdir);
+    if (!Files.exists(dirPath)) {
+      throw new IllegalArgumentException(
+        "The specified path does not exist: " + outdir
+      );
+    }
+
+    // Check if it's a directory
+    if (!Files.isDirectory(dirPath)) {
+      throw new IllegalArgumentException(
+        "The specified path is not a directory: " + outdir
+      );
+    }
+  }
+
+  /**
+   * Creates the walker selecting files and optionally directories from an
+   * output directory.
+   *
+   * @param outdir The root output directory to traverse.
+   * @param includeDir Whether directories should be included in the result.
+   * @param ignoreGlobs Glob patterns identifying files or directories to
+   *     exclude.
+   * @param ignoreFilePath Path to a file containing additional ignore glob
+   *     patterns.
+   * @param includeGlobs Glob patterns identifying files or directories to
+   *     include.
+   * @param followLinks Whether links to directories are walked.
+   * @return The walker.
+   * @throws IOException If the ignore patterns file cannot be read.
+   */
+  private static DirectoryWalker directoryWalker(
+      final String outdir,
+      final boolean includeDir,
+      final List<String> ignoreGlobs,
+      final String ignoreFilePath,
+      final List<String> includeGlobs,
+      final boolean followLinks)
+      throws IOException {
     Path directory = Paths.get(outdir);
 
     List<String> allIgnoreGlobs = new ArrayList<>();
@@ -324,77 +617,33 @@ public final class Methods {
       allIgnoreGlobs.addAll(readGlobsFromFile(ignoreFilePath));
     }
 
-    List<PathMatcher> excludeMatchers = new ArrayList<>();
-    for (String glob : allIgnoreGlobs) {
-      excludeMatchers.add(
-        FileSystems.getDefault().getPathMatcher("glob:" + glob)
-      );
-    }
-
     List<String> allIncludeGlobs = new ArrayList<>();
     if (includeGlobs != null) {
       allIncludeGlobs.addAll(includeGlobs);
     }
 
-    List<PathMatcher> includeMatchers = new ArrayList<>();
-    for (String glob : allIncludeGlobs) {
-      includeMatchers.add(
-        FileSystems.getDefault().getPathMatcher("glob:" + glob)
-      );
-    }
+    GlobFilter globs = GlobFilter.of(allIncludeGlobs, allIgnoreGlobs);
+    Predicate<Path> isSelected = path -> globs.matches(
+        directory.relativize(path).toString());
 
-    Files.walkFileTree(
+    return new DirectoryWalker(
         directory,
-        new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(
-              final Path file,
-              final BasicFileAttributes attrs) {
-            if (isIncluded(file) && !isExcluded(file)) {
-              output.add(file.toFile());
-            }
-            return FileVisitResult.CONTINUE;
-          }
-
-          @Override
-          public FileVisitResult preVisitDirectory(
-              final Path dir,
-              final BasicFileAttributes attrs) {
-            Path fileName = dir.getFileName();
-            // Exclude output which is the root output folder from nf-test
-            if (
-                includeDir
-                && isIncluded(dir)
-                && !isExcluded(dir)
-                && fileName != null
-                && !fileName.toString().equals("output")) {
-              output.add(dir.toFile());
-            }
-            return FileVisitResult.CONTINUE;
-          }
-
-          private boolean isExcluded(final Path path) {
-            return excludeMatchers
-              .stream()
-              .anyMatch(matcher -> matcher.matches(directory.relativize(path)));
-          }
-
-          private boolean isIncluded(final Path path) {
-            return includeMatchers
-              .stream()
-              .anyMatch(matcher -> matcher.matches(directory.relativize(path)));
-          }
-        });
-
-    return output
-      .stream()
-      .sorted(Comparator.comparing(File::getPath))
-      .collect(Collectors.toList());
+        isSelected,
+        dir -> {
+          Path fileName = dir.getFileName();
+          // Exclude output which is the root output folder from nf-test
+          return includeDir
+              && isSelected.test(dir)
+              && fileName != null
+              && !fileName.toString().equals("output");
+        },
+        DirectoryWalker.excludedSubtrees(directory, allIgnoreGlobs),
+        followLinks);
   }
 
   /**
    * Reads glob patterns from a file, ignoring empty lines and
-   * surrounding whitespace.
+   * surrounding whitespace. The patterns are cached until the file changes.
    *
    * @param filePath The path to the file containing glob patterns.
    * @return A list of glob patterns read from the file.
@@ -403,19 +652,7 @@ public final class Methods {
   private static List<String> readGlobsFromFile(
       final String filePath)
       throws IOException {
-    List<String> globs = new ArrayList<>();
-    try (BufferedReader reader = Files.newBufferedReader(
-        Paths.get(filePath),
-        StandardCharsets.UTF_8)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        line = line.trim();
-        if (!line.isEmpty()) {
-          globs.add(line);
-        }
-      }
-    }
-    return globs;
+    return IgnoreFileCache.readGlobs(filePath);
   }
 
   /**
@@ -440,11 +677,6 @@ public final class Methods {
         .collect(Collectors.toList());
   }
 
-  /**
-   * Bit mask used to convert a signed byte to its unsigned representation.
-   */
-  private static final int BYTE_MASK = 0xff;
-
   /**
    * Computes an MD5 hash from the string representation of each element in
    * a list.
@@ -456,27 +688,12 @@ public final class Methods {
   public static String listToMD5(
       final ArrayList<Object> input)
       throws UnsupportedEncodingException {
-    try {
-      MessageDigest md5 = MessageDigest.getInstance("MD5");
-      Iterator<Object> inputIterator = input.iterator();
-      while (inputIterator.hasNext()) {
-        md5.update(inputIterator.next().toString().getBytes("UTF-8"));
-      }
-      byte[] digest = md5.digest();
-
-      // Convert byte array to hex string
-      StringBuilder hexString = new StringBuilder();
-      for (byte b : digest) {
-        String hex = Integer.toHexString(BYTE_MASK & b);
-        if (hex.length() == 1) {
-          hexString.append('0');
-        }
-        hexString.append(hex);
-      }
-      return hexString.toString();
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("MD5 algorithm not available", e);
+    MessageDigest md5 = Digests.md5();
+    Iterator<Object> inputIterator = input.iterator();
+    while (inputIterator.hasNext()) {
+      Digests.update(md5, inputIterator.next().toString());
     }
+    return Digests.toHex(md5.digest());
   }
 
   /**
@@ -546,6 +763,50 @@ public final class Methods {
     return filterNextflowOutput(output, null, true, false, null, null);
   }
 
+  /**
+   * Filters a Nextflow log file, such as {@code .nextflow.log}, line by line
+   * without loading the whole file in memory. Named parameters are supported
+   * the same way as for other outputs:
+   * {@code filterNextflowOutput(path, sorted: false)}.
+   *
+   * @param output The log file to filter, decoded as UTF-8
+   * @return The filtered output as a List<String> with unstable patterns
+   * removed
+   * @throws IOException If the file cannot be read
+   */
+  public static List<String> filterNextflowOutput(final Path output)
+      throws IOException {
+    return new NextflowOutputFilter().filter(output);
+  }
+
+  /**
+   * Filters Nextflow output read from a reader line by line. The reader is
+   * not closed.
+   *
+   * @param output The reader to filter
+   * @return The filtered output as a List<String> with unstable patterns
+   * removed
+   * @throws IOException If the reader cannot be read
+   */
+  public static List<String> filterNextflowOutput(final Reader output)
+      throws IOException {
+    return new NextflowOutputFilter().filter(output);
+  }
+
+  /**
+   * Filters Nextflow output read from a stream line by line. The stream is
+   * decoded as UTF-8 and is not closed.
+   *
+   * @param output The stream to filter
+   * @return The filtered output as a List<String> with unstable patterns
+   * removed
+   * @throws IOException If the stream cannot be read
+   */
+  public static List<String> filterNextflowOutput(final InputStream output)
+      throws IOException {
+    return new NextflowOutputFilter().filter(output);
+  }
+
   /**
    * Filters Nextflow stdout/stderr output with optional sorting.
    *
@@ -591,99 +852,9 @@ public final class Methods {
   public static String filterLinePattern(
       final String line,
       final String capturedRunName) {
-    String filtered = line;
-
-    // Replace username value in patterns like "userName : max"
-    String userName = System.getProperty("user.name");
-    if (userName != null && !userName.isEmpty()) {
-      filtered = filtered.replaceAll(
-        "(userName\\s*:\\s*)" + java.util.regex.Pattern.quote(userName),
-        "$1[USER]");
-    }
-
-    // Remove timestamp patterns
-
-    // ISO 8601 related formats:
-    // YYY-MM-DDTHH:mm:ss
-    // YYY-MM-DD HH:mm:ss
-    // YYY-MM-DD_HH-mm-ss
-    filtered = filtered.replaceAll(
-        "\\d{4}-\\d{2}-\\d{2}[T\\s_]\\d{2}[:-]\\d{2}[:-]\\d{2}"
-        + "(?:\\.\\d+)?(?:Z|[+-]\\d{2}:\\d{2})?",
-        "[TIMESTAMP]");
-    // US date format: MM/DD/YYY HH:mm:ss
-    filtered = filtered.replaceAll(
-      "\\d{2}/\\d{2}/\\d{4}\\s+\\d{2}:\\d{2}:\\d{2}",
-      "[TIMESTAMP]");
-
-    // Remove Nextflow process execution hashes (format: [xx/yyyyyy])
-    filtered = filtered.replaceAll(
-      "\\[[0-9a-f]{2}/[0-9a-f]{6}\\]",
-      "[NXF_HASH]");
-
-    // Remove NFT_HASH work dir (format: [xxxxxxxxxxxxxxxxxxxxxxxxxxxxxx])
-    filtered = filtered.replaceAll(
-      "\\b[0-9a-f]{30,32}\\b",
-      "[NFT_HASH]");
-
-    // Remove revision hashes (format: revision: abc1234)
-    filtered = filtered.replaceAll(
-      "revision: [0-9a-f]{10}",
-      "revision: [REVISION]");
-
-    // Remove Nextflow version update notifications
-    filtered = filtered.replaceAll(
-      ".*Nextflow\\s+\\d+\\.\\d+\\.\\d+.*is available.*",
-      "");
-    filtered = filtered.replaceAll(
-      ".*Please consider updating your version.*",
-      "");
-
-    // Replace absolute paths with [PATH] placeholder using a more
-    // general approach
-    filtered = filterAbsolutePaths(filtered);
-
-    // Remove run name using captured run name from launching line
-    if (capturedRunName != null) {
-      // Replace bracketed run name: [run_name]
-      filtered = filtered.replace(
-        "[" + capturedRunName + "]",
-        "[RUN_NAME]");
-      // Replace unbracketed run name: run_name
-      filtered = filtered.replace(
-        capturedRunName,
-        "[RUN_NAME]");
-    }
-
-    // Remove containerEngine messages
-    // as it's docker and singularity specific, but not conda
-    filtered = filtered.replaceAll(".*containerEngine.*", "");
-
-    // Replace common reproducibility solutions (ie virtualenv or container)
-    // by [CONTAINER] - All of theses are profiles in nf-core TEMPLATE
-    // I know that none all of these are actually containers, but it's a
-    // good quick approximation
-    filtered = filtered.replaceAll("apptainer", "[CONTAINER]");
-    filtered = filtered.replaceAll("charliecloud", "[CONTAINER]");
-    filtered = filtered.replaceAll("conda", "[CONTAINER]");
-    filtered = filtered.replaceAll("docker", "[CONTAINER]");
-    filtered = filtered.replaceAll("mamba", "[CONTAINER]");
-    filtered = filtered.replaceAll("podman", "[CONTAINER]");
-    filtered = filtered.replaceAll("shifter", "[CONTAINER]");
-    filtered = filtered.replaceAll("singularity", "[CONTAINER]");
-    filtered = filtered.replaceAll("wave", "[CONTAINER]");
-
-    // Replace nf-core pipeline versions (e.g., "nf-core/xxx yyyy")
-    filtered = filtered.replaceAll(
-      "(nf-core/[^\\s]+\\s+)\\d+\\.\\d+(?:\\.\\d+)?[a-zA-Z]*",
-      "$1[VERSION]");
-
-    // Replace NEXTFLOW versions
-    filtered = filtered.replaceAll(
-      "N E X T F L O W  ~  version \\d+\\.\\d+\\.\\d+(-edge)?",
-      "N E X T F L O W  ~  version [VERSION]");
-
-    return filtered;
+    return NextflowOutputFilter
+      .defaultFilter()
+      .filterLine(line, capturedRunName);
   }
 
   /**
@@ -714,142 +885,13 @@ public final class Methods {
       final boolean keepAnsi,
       final List<String> ignore,
       final List<String> include) {
-    if (output == null) {
-      return new ArrayList<>();
-    }
-
-    List<String> outputLines;
-    if (output instanceof List) {
-      // Handle workflow.stdout and workflow.stderr which are Lists
-      List<?> outputList = (List<?>) output;
-      if (outputList.isEmpty()) {
-        return new ArrayList<>();
-      }
-      outputLines = outputList.stream()
-          .map(Object::toString)
-          .collect(Collectors.toList());
-    } else if (output instanceof String) {
-      String outputString = (String) output;
-      if (outputString.isEmpty()) {
-        return new ArrayList<>();
-      }
-      // Split string into lines
-      outputLines = Arrays.asList(outputString.split("\n"));
-    } else {
-      // Convert any other type to string and split into lines
-      String outputString = output.toString();
-      outputLines = Arrays.asList(outputString.split("\n"));
-    }
-
-    // Filter each line
-    List<String> filteredLines = new ArrayList<>();
-    String capturedRunName = null;
-
-    for (String line : outputLines) {
-      String filtered = line;
-
-      // Filter out lines containing any of the ignore strings
-      if (ignore != null && !ignore.isEmpty()) {
-        boolean shouldIgnore = false;
-        for (String ignoreString : ignore) {
-          if (filtered.contains(ignoreString)) {
-            shouldIgnore = true;
-            break;
-          }
-        }
-        if (shouldIgnore) {
-          continue; // Skip this line
-        }
-      }
-
-      // Filter to include only lines containing any of the include strings
-      if (include != null && !include.isEmpty()) {
-        boolean shouldInclude = false;
-        for (String includeString : include) {
-          if (filtered.contains(includeString)) {
-            shouldInclude = true;
-            break;
-          }
-        }
-        if (!shouldInclude) {
-          continue; // Skip this line
-        }
-      }
-
-      // Strip ANSI escape codes unless keepAnsi is true
-      // (colors, formatting, etc.)
-      if (!keepAnsi) {
-        filtered = filtered.replaceAll(
-          "\\x1B\\[[0-9;]*[A-Za-z]", "");
-      }
-
-      // Capture run name from launching line
-      if (
-          capturedRunName == null
-          && filtered.contains("Launching")
-          && filtered.contains("[")
-          && filtered.contains("]")) {
-        java.util.regex.Pattern runNamePattern =
-          java.util.regex.Pattern.compile("\\[([^\\]]+)\\]");
-        java.util.regex.Matcher matcher = runNamePattern.matcher(filtered);
-        if (matcher.find()) {
-          capturedRunName = matcher.group(1);
-        }
-      }
-
-      filtered = filterLinePattern(filtered, capturedRunName);
-
-      // Only add non-empty lines (filter out empty lines)
-      if (!filtered.trim().isEmpty()) {
-        filteredLines.add(filtered);
-      }
-    }
-
-    // Sort and remove duplicates if requested
-    if (sorted) {
-      // Separate lines that should be sorted from those that
-      // should preserve order
-      List<String> sortableLines = new ArrayList<>();
-      List<String> preserveOrderLines = new ArrayList<>();
-
-      for (String line : filteredLines) {
-        if (line.contains("Staging foreign file")
-            || line.contains("Submitted process")
-            || line.startsWith("Creating env using conda:")
-            || line.startsWith("Pulling Singularity image")
-            || line.startsWith("ERROR ~")
-            || line.startsWith("WARN:")
-            || (
-              line.contains("Check ")
-              && line.contains(" file for details")
-            )) {
-          sortableLines.add(line);
-        } else {
-          preserveOrderLines.add(line);
-        }
-      }
-
-      // Sort only the sortable lines
-      Collections.sort(sortableLines);
-
-      // Combine lists: preserve-order lines first, then sorted lines
-      List<String> combinedLines = new ArrayList<>();
-      combinedLines.addAll(preserveOrderLines);
-      combinedLines.addAll(sortableLines);
-
-      // Remove duplicates while preserving the new order
-      List<String> uniqueLines = new ArrayList<>();
-      String lastLine = null;
-      for (String line : combinedLines) {
-        if (!line.equals(lastLine)) {
-          uniqueLines.add(line);
-          lastLine = line;
-        }
-      }
-      filteredLines = uniqueLines;
-    }
-
-    return filteredLines;
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("additionalPatterns", additionalPatterns);
+    options.put("sorted", sorted);
+    options.put("keepAnsi", keepAnsi);
+    options.put("ignore", ignore);
+    options.put("include", include);
+    return new NextflowOutputFilter(options).filter(output);
   }
 
   /**
@@ -879,7 +921,8 @@ public final class Methods {
    * This allows calling: filterNextflowOutput(output, sorted: false, keepAnsi:
    * true, ignore: ["Staging foreign file"], include: ["ERROR", "WARN"])
    *
-   * @param output  The stdout or stderr output (String or List) to filter
+   * @param output  The stdout or stderr output (String or List, or a Path,
+   *                Reader or InputStream read line by line) to filter
    * @param options Map containing filtering options (automatically created by
    *                Groovy named params):
    *                - additionalPatterns: List<String> of additional regex
@@ -902,33 +945,7 @@ public final class Methods {
   public static List<String> filterNextflowOutput(
       final LinkedHashMap<String, Object> options,
       final Object output) {
-
-    final Map<String, Object> optionsFixed;
-    if (options == null) {
-      optionsFixed = new HashMap<>();
-    } else {
-      optionsFixed = options;
-    }
-
-    // Extract options with defaults
-    List<String> additionalPatterns = (List<String>) optionsFixed
-      .get("additionalPatterns");
-    Boolean sorted = (Boolean) optionsFixed.get("sorted");
-    Boolean keepAnsi = (Boolean) optionsFixed.get("keepAnsi");
-    List<String> ignore = (List<String>) optionsFixed.get("ignore");
-    List<String> include = (List<String>) optionsFixed.get("include");
-
-    // Apply defaults
-    if (sorted == null) {
-      sorted = true;
-    }
-    if (keepAnsi == null) {
-      keepAnsi = false;
-    }
-    return filterNextflowOutput(
-      output, additionalPatterns,
-      sorted, keepAnsi, ignore, include
-    );
+    return new NextflowOutputFilter(options).filter(output);
   }
 
   /**
@@ -942,97 +959,149 @@ public final class Methods {
   public static List<String> filterNextflowOutput(
       final Object output,
       final Map<String, Object> options) {
+    return new NextflowOutputFilter(options).filter(output);
+  }
 
-    final Map<String, Object> optionsFixed;
-    if (options == null) {
-      optionsFixed = new HashMap<>();
-    } else {
-      optionsFixed = options;
-    }
-
-    // Extract options with defaults
-    List<String> additionalPatterns = (List<String>) optionsFixed
-      .get("additionalPatterns");
-    Boolean sorted = (Boolean) optionsFixed.get("sorted");
-    Boolean keepAnsi = (Boolean) optionsFixed.get("keepAnsi");
-    List<String> ignore = (List<String>) optionsFixed.get("ignore");
-    List<String> include = (List<String>) optionsFixed.get("include");
-
-    // Apply defaults
-    if (sorted == null) {
-      sorted = true;
-    }
-    if (keepAnsi == null) {
-      keepAnsi = false;
-    }
-    return filterNextflowOutput(
-      output, additionalPatterns,
-      sorted, keepAnsi, ignore, include
-    );
+  /**
+   * Summarizes filtered Nextflow output by its line count and MD5 digest,
+   * for snapshots of outputs too long to store line by line.
+   *
+   * @param output The output to filter, of any type accepted by
+   *     {@link #filterNextflowOutput(Object)}.
+   * @return A map with the {@code lineCount} and the {@code md5} of the
+   *     filtered lines, as computed by {@link #listToMD5(ArrayList)}.
+   */
+  public static TreeMap<String, Object> filterNextflowOutputDigest(
+      final Object output) {
+    return new NextflowOutputFilter().digest(output);
   }
 
   /**
-   * Filters absolute paths in the given text and replaces them with [PATH]
-   * placeholder.
+   * Summarizes filtered Nextflow output using Groovy's named parameter
+   * syntax: {@code filterNextflowOutputDigest(output, sorted: false)}.
    *
-   * @param text The text to filter
-   * @return The filtered text with various directory paths replaced with [PATH]
+   * @param options The filtering options, as for
+   *     {@link #filterNextflowOutput(Object, Map)}.
+   * @param output The output to filter.
+   * @return A map with the {@code lineCount} and the {@code md5} of the
+   *     filtered lines.
    */
-  private static String filterAbsolutePaths(final String text) {
-    String filtered = text;
+  public static TreeMap<String, Object> filterNextflowOutputDigest(
+      final LinkedHashMap<String, Object> options,
+      final Object output) {
+    return new NextflowOutputFilter(options).digest(output);
+  }
 
-    // Collect all paths to replace, then sort by length (longest first)
-    // This ensures more specific paths are replaced before their parent paths
-    List<String> pathsToReplace = new ArrayList<>();
+  /**
+   * Summarizes filtered Nextflow output using options provided in a map.
+   *
+   * @param output The output to filter.
+   * @param options The filtering options, or {@code null} to use defaults.
+   * @return A map with the {@code lineCount} and the {@code md5} of the
+   *     filtered lines.
+   */
+  public static TreeMap<String, Object> filterNextflowOutputDigest(
+      final Object output,
+      final Map<String, Object> options) {
+    return new NextflowOutputFilter(options).digest(output);
+  }
 
-    // Get the current working directory
-    String workingDir = System.getProperty("user.dir");
-    if (workingDir != null) {
-      pathsToReplace.add(workingDir);
-    }
+  /**
+   * Starts filtering a Nextflow log file while the workflow writes it, in a
+   * background thread. Call {@code result()} on the returned follower once
+   * the workflow has exited to get the filtered lines. The thread polls the
+   * file until then, so close the follower, for example with
+   * try-with-resources, if its result may not be retrieved.
+   *
+   * @param output The log file to follow, which may not exist yet.
+   * @return The running follower.
+   */
+  public static NextflowOutputFollower<List<String>> followNextflowOutput(
+      final Path output) {
+    return new NextflowOutputFilter().follow(output);
+  }
 
-    // Check for various environment variables
-    String[] envVars = {
-        "HOME",
-        "NFT_WORKDIR",
-        "NXF_CACHE_DIR",
-        "NXF_CONDA_CACHEDIR",
-        "NXF_HOME",
-        "NXF_SINGULARITY_CACHEDIR",
-        "NXF_SINGULARITY_LIBRARYDIR",
-        "NXF_TEMP",
-        "NXF_WORK"
-    };
+  /**
+   * Starts filtering a Nextflow log file while the workflow writes it, using
+   * Groovy's named parameter syntax:
+   * {@code followNextflowOutput(path, include: ["ERROR"])}.
+   *
+   * @param options The filtering options, as for
+   *     {@link #filterNextflowOutput(Object, Map)}, and {@code pollInterval}
+   *     in milliseconds.
+   * @param output The log file to follow, which may not exist yet.
+   * @return The running follower.
+   */
+  public static NextflowOutputFollower<List<String>> followNextflowOutput(
+      final LinkedHashMap<String, Object> options,
+      final Path output) {
+    return new NextflowOutputFilter(options).follow(output);
+  }
 
-    for (String envVar : envVars) {
-      String envValue = System.getenv(envVar);
-      if (envValue != null && !envValue.isEmpty() && !envValue.equals("~")) {
-        pathsToReplace.add(envValue);
-      }
-    }
+  /**
+   * Starts summarizing a Nextflow log file while the workflow writes it.
+   * Call {@code result()} on the returned follower once the workflow has
+   * exited to get the line count and MD5 of the filtered lines.
+   *
+   * @param output The log file to follow, which may not exist yet.
+   * @return The running follower.
+   */
+  public static NextflowOutputFollower<TreeMap<String, Object>>
+      followNextflowOutputDigest(final Path output) {
+    return new NextflowOutputFilter().followDigest(output);
+  }
 
-    // Handle default NXF_HOME case: if NXF_HOME is null, Nextflow uses
-    // $HOME/.nextflow
-    String nxfHome = System.getenv("NXF_HOME");
-    if (nxfHome == null || nxfHome.isEmpty()) {
-      String home = System.getProperty("user.home");
-      if (home != null && !home.isEmpty() && !home.equals("~")) {
-        pathsToReplace.add(home + "/.nextflow");
-      }
-    }
+  /**
+   * Starts summarizing a Nextflow log file while the workflow writes it,
+   * using Groovy's named parameter syntax.
+   *
+   * @param options The filtering options, as for
+   *     {@link #followNextflowOutput(LinkedHashMap, Path)}.
+   * @param output The log file to follow, which may not exist yet.
+   * @return The running follower.
+   */
+  public static NextflowOutputFollower<TreeMap<String, Object>>
+      followNextflowOutputDigest(
+        final LinkedHashMap<String, Object> options,
+        final Path output) {
+    return new NextflowOutputFilter(options).followDigest(output);
+  }
 
-    // Remove duplicates and sort paths by length to avoid partial replacements
-    pathsToReplace = pathsToReplace.stream()
-        .distinct()
-        .sorted((a, b) -> Integer.compare(b.length(), a.length()))
-        .collect(Collectors.toList());
+  /**
+   * Resolves again the absolute paths replaced by {@code [PATH]} in
+   * {@link #filterNextflowOutput(Object)}: the working directory, the home
+   * directory and the Nextflow directories from environment variables such as
+   * {@code NXF_HOME} or {@code NXF_WORK}. They are resolved once on first use,
+   * so call this when the environment changes between tests.
+   */
+  public static void refreshPathPrefixes() {
+    PathPrefixReplacer.refresh();
+  }
 
-    // Replace all paths with [PATH] in order of longest first
-    for (String path : pathsToReplace) {
-      filtered = filtered.replace(path, "[PATH]");
-    }
+  /**
+   * Creates a reusable Nextflow output filter with the default options.
+   *
+   * @return A filter that can be applied to any number of outputs.
+   */
+  public static NextflowOutputFilter nextflowOutputFilter() {
+    return new NextflowOutputFilter();
+  }
 
-    return filtered;
+  /**
+   * Creates a reusable Nextflow output filter using Groovy's named parameter
+   * syntax, accepting the same options as
+   * {@link #filterNextflowOutput(Object, Map)}.
+   *
+   * <p>This allows calling:
+   * {@code def filter = nextflowOutputFilter(sorted: false)} once and then
+   * {@code filter.filter(workflow.stdout)} in every test.
+   *
+   * @param options The filtering options.
+   * @return A filter that can be applied to any number of outputs.
+   */
+  public static NextflowOutputFilter nextflowOutputFilter(
+      final LinkedHashMap<String, Object> options) {
+    return new NextflowOutputFilter(options);
   }
 
   /**
@@ -1336,13 +1405,15 @@ public final class Methods {
   /**
    * Lists all files at the given path, returning sorted relative paths.
    *
-   * <p>Supports local paths and S3 URIs. S3 URIs are listed via the AWS CLI.
+   * <p>Supports local paths and S3 URIs. S3 URIs are listed with the S3 API
+   * when the {@code AWS_ACCESS_KEY_ID} and {@code AWS_SECRET_ACCESS_KEY}
+   * environment variables are set, and via the AWS CLI otherwise.
    *
    * @param path The path to list – a local directory or an S3 URI
    *             (e.g. {@code "s3://my-bucket/results/"})
    * @return A sorted list of relative file paths under {@code path}
-   * @throws IOException if the path cannot be walked or the AWS CLI fails
-   * @throws InterruptedException if the AWS CLI process is interrupted
+   * @throws IOException if the path cannot be walked or S3 cannot be listed
+   * @throws InterruptedException if interrupted while listing S3
    */
   public static List<String> getAllFilesFromPath(
       final String path)
@@ -1368,22 +1439,83 @@ public final class Methods {
    *   <li>{@code ignoreFile} – {@code String} path to a local file whose lines
    *       are treated as additional ignore globs
    *       (e.g. {@code ".nftignore"})</li>
-   *   <li>{@code noSignRequest} – {@code Boolean} pass to the AWS CLI
-   *       {@code --no-sign-request} when listing a public S3 bucket without
-   *       credentials (default: {@code false})</li>
+   *   <li>{@code noSignRequest} – {@code Boolean} send unsigned requests
+   *       when listing a public S3 bucket without credentials
+   *       (default: {@code false})</li>
+   *   <li>{@code endpoint} – {@code String} URL of an S3-compatible server
+   *       (default: the {@code AWS_ENDPOINT_URL_S3} or
+   *       {@code AWS_ENDPOINT_URL} environment variable, or AWS)</li>
+   *   <li>{@code region} – {@code String} region of the S3 bucket
+   *       (default: the {@code AWS_REGION} or {@code AWS_DEFAULT_REGION}
+   *       environment variable, or {@code us-east-1})</li>
+   *   <li>{@code parallelism} – {@code Integer} number of S3 prefixes
+   *       listed at the same time (default: 16)</li>
+   *   <li>{@code awsCli} – {@code Boolean} list S3 URIs with the AWS CLI
+   *       (default: {@code false})</li>
+   *   <li>{@code s3ListingCache} – {@code Boolean} or {@code String} reuse
+   *       S3 listings saved on disk, in the temporary directory or in the
+   *       given directory (default: {@code false})</li>
+   *   <li>{@code s3ListingCacheTtl} – {@code Long} number of seconds after
+   *       which a saved S3 listing is listed again (default: one day)</li>
+   *   <li>{@code s3ListingCacheMaxSize} – {@code Long} limit, in bytes, of
+   *       the total size of the saved S3 listings (default: 64 MiB)</li>
+   *   <li>{@code compact} – {@code Boolean} return an immutable
+   *       {@link FrontCodedList}, using much less memory for large listings
+   *       (default: {@code false})</li>
+   *   <li>{@code listingIndex} – {@code Boolean} or {@code String} reuse an
+   *       on-disk index of local directories while they are unchanged, kept
+   *       in the temporary directory or in the given directory
+   *       (default: {@code false})</li>
+   *   <li>{@code listingIndexMaxSize} – {@code Long} limit, in bytes, of the
+   *       total size of the index files (default: 64 MiB)</li>
+   *   <li>{@code followLinks} – {@code Boolean} walk links to local
+   *       directories, except links to one of their own ancestors
+   *       (default: {@code false})</li>
    * </ul>
    *
    * @param options Named options map (automatically created by Groovy named
    * params)
    * @param path    The path to list – a local directory or a cloud URI
    * @return A sorted list of relative file paths under {@code path}
-   * @throws IOException if the path cannot be walked or the AWS CLI fails
-   * @throws InterruptedException if the AWS CLI process is interrupted
+   * @throws IOException if the path cannot be walked or S3 cannot be listed
+   * @throws InterruptedException if interrupted while listing S3
    */
   public static List<String> getAllFilesFromPath(
       final LinkedHashMap<String, Object> options,
       final String path)
       throws IOException, InterruptedException {
+    Boolean compact = (Boolean) options
+      .getOrDefault("compact", false);
+    try (Stream<String> files = streamAllFilesFromPath(options, path)) {
+      if (compact) {
+        return FrontCodedList.of(files::iterator);
+      }
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Streams the files at the given path (local or cloud) as relative paths,
+   * in the order of {@link #getAllFilesFromPath(LinkedHashMap, String)} and
+   * with the same options.
+   *
+   * <p>Local directories are listed lazily, only as the stream reaches
+   * them, so taking the first entries or checking that an entry exists does
+   * not walk the whole tree. S3 prefixes are listed in full first.
+   *
+   * @param options Named options map (automatically created by Groovy named
+   * params)
+   * @param path    The path to list – a local directory or a cloud URI
+   * @return A sorted stream of relative file paths under {@code path}
+   * @throws IOException if the path cannot be read or S3 cannot be listed.
+   *     Errors while streaming a local directory are thrown as
+   *     {@link java.io.UncheckedIOException}.
+   * @throws InterruptedException if interrupted while listing S3
+   */
+  public static Stream<String> streamAllFilesFromPath(
+      final LinkedHashMap<String, Object> options,
+      final String path)
+      throws IOException, InterruptedException {
     if (path == null || path.isEmpty()) {
       throw new IllegalArgumentException(
         "The 'path' parameter is required."
@@ -1401,233 +1533,114 @@ public final class Methods {
     Boolean includeDir = (Boolean) options
       .getOrDefault("includeDir", false);
     String ignoreFilePath = (String) options.get("ignoreFile");
-    Boolean noSignRequest = (Boolean) options
-      .getOrDefault("noSignRequest", false);
+    Boolean followLinks = (Boolean) options
+      .getOrDefault("followLinks", false);
+    ListingIndex index = ListingIndex.fromOptions(options);
 
     List<String> allIgnoreGlobs = new ArrayList<>(ignoreGlobs);
     if (ignoreFilePath != null && !ignoreFilePath.isEmpty()) {
       allIgnoreGlobs.addAll(readGlobsFromFile(ignoreFilePath));
     }
 
-    List<PathMatcher> excludeMatchers = new ArrayList<>();
-    for (String glob : allIgnoreGlobs) {
+    List<String> nonEmptyIncludeGlobs = new ArrayList<>();
+    for (String glob : includeGlobs) {
       if (glob != null && !glob.isEmpty()) {
-        excludeMatchers.add(FileSystems
-          .getDefault()
-          .getPathMatcher("glob:" + glob)
-        );
+        nonEmptyIncludeGlobs.add(glob);
       }
     }
-
-    List<PathMatcher> includeMatchers = new ArrayList<>();
-    for (String glob : includeGlobs) {
+    List<String> nonEmptyIgnoreGlobs = new ArrayList<>();
+    for (String glob : allIgnoreGlobs) {
       if (glob != null && !glob.isEmpty()) {
-        includeMatchers.add(FileSystems
-          .getDefault()
-          .getPathMatcher("glob:" + glob)
-        );
+        nonEmptyIgnoreGlobs.add(glob);
       }
     }
+    GlobFilter globs;
+    if (nonEmptyIncludeGlobs.isEmpty()) {
+      // Without include globs, every path not ignored is listed
+      globs = GlobFilter.of(null, nonEmptyIgnoreGlobs);
+    } else {
+      globs = GlobFilter.of(nonEmptyIncludeGlobs, nonEmptyIgnoreGlobs);
+    }
 
     if (path.startsWith("s3://")) {
-      return getAllFilesFromS3ViaCli(
-        path, includeMatchers, excludeMatchers,
-        includeDir, noSignRequest
-      );
+      return S3Lister.list(
+        options, path, globs, nonEmptyIgnoreGlobs, includeDir
+      ).stream();
     }
 
     Path root = Paths.get(path);
-    List<String> files = new ArrayList<>();
+    Predicate<Path> isSelected = entry -> {
+      String relative = root.relativize(entry).toString();
+      return !relative.isEmpty() && globs.matches(relative);
+    };
 
-    Files.walkFileTree(
+    DirectoryWalker walker = new DirectoryWalker(
         root,
-        new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(
-              final Path file,
-              final BasicFileAttributes attrs) {
-            String relative = root.relativize(file).toString();
-            if (relative.isEmpty()) {
-              return FileVisitResult.CONTINUE;
-            }
-            Path relLocal = Paths.get(relative);
-            boolean included =
-                includeMatchers.isEmpty()
-                    || includeMatchers
-                      .stream()
-                      .anyMatch(m -> m.matches(relLocal));
-            boolean excluded = excludeMatchers
-              .stream()
-              .anyMatch(m -> m.matches(relLocal));
-            if (included && !excluded) {
-              files.add(relative);
-            }
-            return FileVisitResult.CONTINUE;
-          }
-
-          @Override
-          public FileVisitResult preVisitDirectory(
-              final Path dir,
-              final BasicFileAttributes attrs) {
-            if (dir.equals(root)) {
-              return FileVisitResult.CONTINUE;
-            }
-            if (includeDir) {
-              String relative = root.relativize(dir).toString();
-              if (!relative.isEmpty()) {
-                Path relLocal = Paths.get(relative);
-                boolean included =
-                    includeMatchers.isEmpty()
-                        || includeMatchers
-                          .stream()
-                          .anyMatch(m -> m.matches(relLocal));
-                boolean excluded = excludeMatchers
-                  .stream()
-                  .anyMatch(m -> m.matches(relLocal));
-                if (included && !excluded) {
-                  files.add(relative);
-                }
-              }
-            }
-            return FileVisitResult.CONTINUE;
-          }
-        });
-
-    return files.stream().sorted().collect(Collectors.toList());
+        isSelected,
+        dir -> includeDir && !dir.equals(root) && isSelected.test(dir),
+        DirectoryWalker.excludedSubtrees(root, allIgnoreGlobs),
+        followLinks);
+    Stream<Path> entries;
+    if (index != null) {
+      entries = walker.walkIndexed(index);
+    } else {
+      entries = walker.walkSorted();
+    }
+    return entries.map(entry -> root.relativize(entry).toString());
   }
 
   /**
-   * Number of fields expected in an AWS S3 CLI listing line.
-   */
-  private static final int AWS_S3_LIST_FIELDS = 4;
-
-  /**
-   * Index of the object key in an AWS S3 CLI listing line.
+   * Deletes the S3 listings saved by the {@code s3ListingCache} option of
+   * {@link #getAllFilesFromPath(LinkedHashMap, String)} that may hold keys
+   * below a path, so that it is listed again, from the default cache
+   * directory.
+   *
+   * @param s3Path The S3 path, such as {@code s3://bucket/data/}, or
+   *     {@code s3://} to delete every listing.
+   * @return The number of listings deleted.
+   * @throws IOException If the cache directory cannot be listed.
    */
-  private static final int AWS_S3_KEY_INDEX = 3;
+  public static int invalidateS3ListingCache(final String s3Path)
+      throws IOException {
+    return invalidateS3ListingCache(
+      new LinkedHashMap<String, Object>(), s3Path);
+  }
 
   /**
-   * Lists files under an S3 prefix using the AWS CLI
-   * ({@code aws s3 ls --recursive}).
-   *
-   * It applies the same include/exclude glob filtering used by the local
-   * walk. S3 key suffixes ending in {@code /} are treated as directory
-   * markers and emitted only when {@code includeDir} is {@code true}.
-   *
-   * @param s3Path The S3 path or prefix to list.
-   * @param includeMatchers Path matchers for files to include.
-   * @param excludeMatchers Path matchers for files to exclude.
-   * @param includeDir Whether directory markers should be included in the
-   * results.
-   * @param noSignRequest Whether to use the AWS CLI {@code --no-sign-request}
-   * option.
+   * Deletes saved S3 listings that may hold keys below a path, using
+   * Groovy's named parameter syntax:
+   * {@code invalidateS3ListingCache('s3://bucket/', s3ListingCache: dir)}.
    *
-   * @return A sorted list of S3 object keys matching the include and exclude
-   * filters.
-   * @throws IOException If an I/O error occurs while executing the AWS CLI or
-   *     reading its output.
-   * @throws InterruptedException If the current thread is interrupted while
-   *     waiting for the AWS CLI process to complete.
+   * @param options The {@code s3ListingCache} option giving the cache
+   *     directory, as for {@link #getAllFilesFromPath(LinkedHashMap,
+   *     String)}.
+   * @param s3Path The S3 path, such as {@code s3://bucket/data/}, or
+   *     {@code s3://} to delete every listing.
+   * @return The number of listings deleted.
+   * @throws IOException If the cache directory cannot be listed.
    */
-  private static List<String> getAllFilesFromS3ViaCli(
-      final String s3Path,
-      final List<PathMatcher> includeMatchers,
-      final List<PathMatcher> excludeMatchers,
-      final boolean includeDir,
-      final boolean noSignRequest)
-      throws IOException, InterruptedException {
-
-    String normalizedPath = s3Path;
-    if (!s3Path.endsWith("/")) {
-      normalizedPath += "/";
-    }
-    String bucketAndPrefix = normalizedPath.substring("s3://".length());
-    int firstSlash = bucketAndPrefix.indexOf('/');
-    String prefix;
-    if (firstSlash >= 0) {
-      prefix = bucketAndPrefix.substring(firstSlash + 1);
-    } else {
-      prefix = "";
-    }
-
-    List<String> cmd = new ArrayList<>(
-      Arrays.asList("aws", "s3", "ls", "--recursive")
-    );
-    if (noSignRequest) {
-      cmd.add("--no-sign-request");
-    }
-    cmd.add(normalizedPath);
-
-    ProcessBuilder pb = new ProcessBuilder(cmd);
-    pb.redirectErrorStream(false);
-    Process process = pb.start();
-
-    List<String> files = new ArrayList<>();
-    try (BufferedReader reader = new BufferedReader(
-        new InputStreamReader(
-          process.getInputStream(),
-          StandardCharsets.UTF_8
-        )
-    )) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        // Output format: "2024-01-01 12:00:00 12345 prefix/path/to/file.txt"
-        String[] parts = line.trim().split("\\s+", AWS_S3_LIST_FIELDS);
-        if (parts.length < AWS_S3_LIST_FIELDS) {
-          continue;
-        }
-
-        String fullKey = parts[AWS_S3_KEY_INDEX];
-        String relativePath;
-        if (!prefix.isEmpty() && fullKey.startsWith(prefix)) {
-          relativePath = fullKey.substring(prefix.length());
-        } else {
-          relativePath = fullKey;
-        }
-
-        if (relativePath.isEmpty()) {
-          continue;
-        }
-
-        boolean isDir = relativePath.endsWith("/");
-        if (isDir && !includeDir) {
-          continue;
-        }
-
-        final String pathString;
-        if (isDir) {
-          pathString = relativePath.substring(0, relativePath.length() - 1);
-        } else {
-          pathString = relativePath;
-        }
-        Path relPath = Paths.get(pathString);
-        boolean included = includeMatchers.isEmpty()
-            || includeMatchers.stream().anyMatch(m -> m.matches(relPath));
-        boolean excluded = excludeMatchers
-          .stream()
-          .anyMatch(m -> m.matches(relPath));
-        if (included && !excluded) {
-          files.add(relativePath);
-        }
-      }
-    }
-
-    int exitCode = process.waitFor();
-    if (exitCode != 0) {
-      throw new IOException(
-          "AWS CLI returned exit code " + exitCode
-          + " when listing: " + normalizedPath);
+  public static int invalidateS3ListingCache(
+      final LinkedHashMap<String, Object> options,
+      final String s3Path)
+      throws IOException {
+    if (s3Path == null || !s3Path.startsWith("s3://")) {
+      throw new IllegalArgumentException(
+        "The 's3Path' parameter must be an S3 path: " + s3Path);
     }
-
-    return files.stream().sorted().collect(Collectors.toList());
+    return S3ListingCache.invalidate(
+      S3ListingCache.directory(options), s3Path);
   }
 
   /**
    * Downloads a single file from a cloud URI to a temporary local directory
    * and returns the local {@link Path}.
    *
-   * The destination path mirrors the key structure under a plugin-specific
-   * temp directory so repeated calls for the same URI are idempotent.
+   * The destination path mirrors the bucket and key structure under a
+   * plugin-specific temp directory. The file is only downloaded again when
+   * it was changed locally or, for S3 objects whose size and ETag can be
+   * read, when they changed; it is written to a temporary file renamed once
+   * complete, and the least recently used files are deleted once the total
+   * size of the downloaded files exceeds a limit.
    *
    * <p>Uses {@code nextflow fs cp} under the hood, so any cloud provider
    * supported by Nextflow (S3, GCS, Azure) is transparently handled.
@@ -1649,18 +1662,33 @@ public final class Methods {
     return downloadFromS3(new LinkedHashMap<String, Object>(), cloudUri);
   }
 
-  /**
-   * Length of the URI scheme separator.
-   */
-  private static final int SCHEME_SEPARATOR_LENGTH = 3;
-
   /**
    * Downloads a single file from a cloud URI to a temporary local directory
-   * and returns the local {@link Path}.
+   * and returns the local {@link Path}, reusing the file downloaded by a
+   * previous call while it is still valid.
    *
-   * See {@link #downloadFromS3(String)} for details.
+   * <p>Supported options:
+   * <ul>
+   *   <li>{@code noSignRequest} – {@code Boolean} read the size and ETag of
+   *       S3 objects with unsigned requests (default: {@code false})</li>
+   *   <li>{@code endpoint} – {@code String} URL of an S3-compatible server
+   *       (default: the {@code AWS_ENDPOINT_URL_S3} or
+   *       {@code AWS_ENDPOINT_URL} environment variable, or AWS)</li>
+   *   <li>{@code region} – {@code String} region of the S3 bucket
+   *       (default: the {@code AWS_REGION} or {@code AWS_DEFAULT_REGION}
+   *       environment variable, or {@code us-east-1})</li>
+   *   <li>{@code downloadCache} – {@code Boolean} or {@code String} reuse
+   *       downloaded files, kept in the temporary directory or in the given
+   *       directory; {@code false} downloads the file again
+   *       (default: {@code true})</li>
+   *   <li>{@code downloadCacheMaxSize} – {@code Long} limit, in bytes, of
+   *       the total size of the downloaded files (default: 10 GiB)</li>
+   * </ul>
+   *
+   * <p>See {@link #downloadFromS3(String)} for details.
    *
-   * @param options Reserved for future use (currently unused)
+   * @param options Named options map (automatically created by Groovy named
+   * params)
    * @param cloudUri The cloud URI of the file to download
    * @return A {@link Path} pointing to the downloaded local file
    * @throws IOException if {@code nextflow fs cp} fails or is not available
@@ -1675,39 +1703,127 @@ public final class Methods {
         "The 'cloudUri' parameter is required."
       );
     }
+    S3Client client = S3Client.fromOptions(options, System.getenv());
+    return DownloadCache.fromOptions(options).fetch(
+      cloudUri,
+      uri -> describeS3Object(client, uri),
+      Methods::nextflowCopy);
+  }
 
-    // Derive a stable local destination mirroring the key path:
-    // <tmpdir>/nft-utils-cloud/<key>
-    int schemeEnd = cloudUri.indexOf("://");
-    String withoutScheme;
-    if (schemeEnd >= 0) {
-      withoutScheme = cloudUri.substring(
-        schemeEnd + SCHEME_SEPARATOR_LENGTH
+  /**
+   * Downloads many files from cloud URIs at the same time, as
+   * {@link #downloadFromS3(String)} does for one, and returns their local
+   * {@link Path}s in the same order.
+   *
+   * @param cloudUris The cloud URIs of the files to download
+   * @return The downloaded local files, in the order of the URIs
+   * @throws IOException if some files cannot be downloaded, listing all of
+   *     them
+   * @throws InterruptedException if the process is interrupted
+   */
+  public static List<Path> downloadFromS3(final List<String> cloudUris)
+      throws IOException, InterruptedException {
+    return downloadFromS3(new LinkedHashMap<String, Object>(), cloudUris);
+  }
+
+  /**
+   * Downloads many files from cloud URIs at the same time, using Groovy's
+   * named parameter syntax:
+   * {@code downloadFromS3(uris, parallelism: 4)}. Files are downloaded
+   * even if others fail, and all the failures are reported together.
+   *
+   * <p>Takes the options of
+   * {@link #downloadFromS3(LinkedHashMap, String)}, and
+   * {@code parallelism} – {@code Integer} number of files downloaded at the
+   * same time (default: 8).
+   *
+   * @param options Named options map (automatically created by Groovy named
+   * params)
+   * @param cloudUris The cloud URIs of the files to download
+   * @return The downloaded local files, in the order of the URIs
+   * @throws IOException if some files cannot be downloaded, listing all of
+   *     them in its message
+   * @throws InterruptedException if the process is interrupted
+   */
+  public static List<Path> downloadFromS3(
+      final LinkedHashMap<String, Object> options,
+      final List<String> cloudUris)
+      throws IOException, InterruptedException {
+    if (cloudUris == null) {
+      throw new IllegalArgumentException(
+        "The 'cloudUris' parameter is required."
       );
-    } else {
-      withoutScheme = cloudUri;
     }
-
-    int firstSlash = withoutScheme.indexOf('/');
-    String relativeKey;
-    if (firstSlash >= 0) {
-      relativeKey = withoutScheme.substring(firstSlash + 1);
-    } else {
-      relativeKey = withoutScheme;
+    for (String cloudUri : cloudUris) {
+      if (cloudUri == null || cloudUri.isEmpty()) {
+        throw new IllegalArgumentException(
+          "The 'cloudUris' parameter must not hold empty URIs."
+        );
+      }
+    }
+    int parallelism = DownloadCache.DEFAULT_PARALLELISM;
+    Number parallelismOption = (Number) options.get("parallelism");
+    if (parallelismOption != null) {
+      parallelism = parallelismOption.intValue();
     }
+    // One client, and so one pool of connections, for all the files
+    S3Client client = S3Client.fromOptions(options, System.getenv());
+    return DownloadCache.fromOptions(options).fetchAll(
+      cloudUris,
+      parallelism,
+      uri -> describeS3Object(client, uri),
+      Methods::nextflowCopy);
+  }
 
-    Path destFile = Paths.get(
-      System.getProperty("java.io.tmpdir"),
-      "nft-utils-cloud", relativeKey
-    );
-    Path destParent = destFile.getParent();
-    if (destParent != null) {
-      Files.createDirectories(destParent);
+  /**
+   * Reads the size and ETag of an S3 object with the ListObjectsV2 API.
+   * Failures are only logged, since the file can be downloaded without
+   * them.
+   *
+   * @param client The client, or {@code null} if no credentials are set in
+   *     the environment.
+   * @param cloudUri The cloud URI of the file.
+   * @return The object, or {@code null} if it is not on S3, if there is no
+   *     client, or if it cannot be read.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  private static S3Client.S3Object describeS3Object(
+      final S3Client client,
+      final String cloudUri)
+      throws InterruptedException {
+    if (!cloudUri.startsWith("s3://")) {
+      return null;
     }
+    String bucketAndKey = cloudUri.substring("s3://".length());
+    int firstSlash = bucketAndKey.indexOf('/');
+    if (client == null || firstSlash < 0) {
+      return null;
+    }
+    try {
+      return client.describeObject(
+        bucketAndKey.substring(0, firstSlash),
+        bucketAndKey.substring(firstSlash + 1));
+    } catch (IOException e) {
+      System.err.println(
+        "Warning: failed to read the size and ETag of " + cloudUri + ": "
+        + e.getMessage());
+      return null;
+    }
+  }
 
+  /**
+   * Copies a file from a cloud URI with {@code nextflow fs cp}.
+   *
+   * @param cloudUri The cloud URI of the file.
+   * @param target The local file to write.
+   * @throws IOException if {@code nextflow fs cp} fails or is not available
+   * @throws InterruptedException if the process is interrupted
+   */
+  private static void nextflowCopy(final String cloudUri, final Path target)
+      throws IOException, InterruptedException {
     List<String> cmd = Arrays.asList(
       "nextflow", "fs", "cp",
-      cloudUri, destFile.toString()
+      cloudUri, target.toString()
     );
     ProcessBuilder pb = new ProcessBuilder(cmd);
     pb.redirectErrorStream(false);
@@ -1718,8 +1834,6 @@ public final class Methods {
           "nextflow fs cp returned exit code " + exitCode
           + " when downloading: " + cloudUri);
     }
-
-    return destFile;
   }
 
   /**
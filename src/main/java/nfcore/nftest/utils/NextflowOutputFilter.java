@@ -0,0 +1,1193 @@
+package nfcore.nftest.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reusable filter removing non-deterministic content from Nextflow
+ * stdout/stderr output so that it can be snapshotted.
+ *
+ * <p>All regular expressions are compiled once, either when the class is
+ * loaded or when the filter is created from its options, so a single
+ * instance can be kept and applied to any number of outputs. Every rule is
+ * guarded by a cheap literal check on the line, so a line only pays for the
+ * regular expressions that can actually match it. The rules run in the same
+ * order as they always did, which keeps the output byte-for-byte identical.
+ */
+public final class NextflowOutputFilter {
+
+  /** ANSI escape codes (colors, formatting, etc.). */
+  private static final Pattern ANSI_PATTERN =
+      Pattern.compile("\\x1B\\[[0-9;]*[A-Za-z]");
+
+  /** First bracketed value of the launching line, i.e. the run name. */
+  private static final Pattern RUN_NAME_PATTERN =
+      Pattern.compile("\\[([^\\]]+)\\]");
+
+  /**
+   * ISO 8601 related formats: YYYY-MM-DDTHH:mm:ss, YYYY-MM-DD HH:mm:ss and
+   * YYYY-MM-DD_HH-mm-ss.
+   */
+  private static final Pattern ISO_TIMESTAMP_PATTERN = Pattern.compile(
+      "\\d{4}-\\d{2}-\\d{2}[T\\s_]\\d{2}[:-]\\d{2}[:-]\\d{2}"
+      + "(?:\\.\\d+)?(?:Z|[+-]\\d{2}:\\d{2})?");
+
+  /** US date format: MM/DD/YYYY HH:mm:ss. */
+  private static final Pattern US_TIMESTAMP_PATTERN =
+      Pattern.compile("\\d{2}/\\d{2}/\\d{4}\\s+\\d{2}:\\d{2}:\\d{2}");
+
+  /** Nextflow process execution hashes (format: [xx/yyyyyy]). */
+  private static final Pattern NXF_HASH_PATTERN =
+      Pattern.compile("\\[[0-9a-f]{2}/[0-9a-f]{6}\\]");
+
+  /** NFT_HASH work dir (format: [xxxxxxxxxxxxxxxxxxxxxxxxxxxxxx]). */
+  private static final Pattern NFT_HASH_PATTERN =
+      Pattern.compile("\\b[0-9a-f]{30,32}\\b");
+
+  /** Minimum number of hex digits in a NFT_HASH. */
+  private static final int NFT_HASH_MIN_LENGTH = 30;
+
+  /** Revision hashes (format: revision: abc1234). */
+  private static final Pattern REVISION_PATTERN =
+      Pattern.compile("revision: [0-9a-f]{10}");
+
+  /** Nextflow version update notification. */
+  private static final Pattern UPDATE_AVAILABLE_PATTERN =
+      Pattern.compile(".*Nextflow\\s+\\d+\\.\\d+\\.\\d+.*is available.*");
+
+  /** Nextflow version update advice. */
+  private static final Pattern UPDATE_ADVICE_PATTERN =
+      Pattern.compile(".*Please consider updating your version.*");
+
+  /** containerEngine messages, docker and singularity specific. */
+  private static final Pattern CONTAINER_ENGINE_PATTERN =
+      Pattern.compile(".*containerEngine.*");
+
+  /**
+   * Common reproducibility solutions (ie virtualenv or container), all of
+   * them are profiles in the nf-core TEMPLATE. Not all of these are actually
+   * containers, but it's a good quick approximation.
+   */
+  private static final String[] CONTAINER_KEYWORDS = {
+      "apptainer",
+      "charliecloud",
+      "conda",
+      "docker",
+      "mamba",
+      "podman",
+      "shifter",
+      "singularity",
+      "wave"
+  };
+
+  /** Any of the {@link #CONTAINER_KEYWORDS}, used to skip clean lines. */
+  private static final Pattern CONTAINER_KEYWORDS_PATTERN = Pattern.compile(
+      Arrays.stream(CONTAINER_KEYWORDS).collect(Collectors.joining("|")));
+
+  /** nf-core pipeline versions (e.g., "nf-core/xxx yyyy"). */
+  private static final Pattern NFCORE_VERSION_PATTERN = Pattern.compile(
+      "(nf-core/[^\\s]+\\s+)\\d+\\.\\d+(?:\\.\\d+)?[a-zA-Z]*");
+
+  /** NEXTFLOW banner version. */
+  private static final Pattern NEXTFLOW_VERSION_PATTERN = Pattern.compile(
+      "N E X T F L O W  ~  version \\d+\\.\\d+\\.\\d+(-edge)?");
+
+  /** Size of the buffer used when reading output from a reader. */
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  /** Default number of raw lines per chunk in parallel mode. */
+  private static final int DEFAULT_CHUNK_SIZE = 16384;
+
+  /** Maximum number of chunks in flight for each core of the pool. */
+  private static final int MAX_PENDING_CHUNKS_PER_CORE = 4;
+
+  /** Default delay between two polls of a followed file, in milliseconds. */
+  private static final long DEFAULT_POLL_INTERVAL = 100;
+
+  /** Maximum number of compiled additional pattern lists kept. */
+  private static final int ADDITIONAL_PATTERNS_CACHE_SIZE = 64;
+
+  /** Compiled additional patterns, keyed by pattern list. */
+  private static final LruCache<List<String>, Pattern>
+      ADDITIONAL_PATTERNS_CACHE =
+      new LruCache<>(ADDITIONAL_PATTERNS_CACHE_SIZE);
+
+  /** Shared filter with default options, see {@link #defaultFilter()}. */
+  private static volatile NextflowOutputFilter defaultInstance;
+
+  /** Whether sortable lines are sorted and duplicates removed. */
+  private final boolean sorted;
+
+  /**
+   * Estimated memory, in bytes, the sortable lines may use before they are
+   * spilled to disk.
+   */
+  private final long sortMemoryLimit;
+
+  /** Delay between two polls of a followed file, in milliseconds. */
+  private final long pollInterval;
+
+  /** Whether lines are filtered in chunks on the fork-join pool. */
+  private final boolean parallel;
+
+  /** Number of raw lines per chunk in parallel mode. */
+  private final int chunkSize;
+
+  /** Whether ANSI escape codes are kept. */
+  private final boolean keepAnsi;
+
+  /** Whether log files are memory-mapped and scanned as raw bytes. */
+  private final boolean mmap;
+
+  /**
+   * Matcher of the ignore and include strings, or {@code null} if there are
+   * none.
+   */
+  private final SubstringMatcher selector;
+
+  /**
+   * Matcher of the ignore and include strings over UTF-8 bytes, or
+   * {@code null} if there are none or {@code mmap} is not set.
+   */
+  private final SubstringMatcher byteSelector;
+
+  /** The user name replaced by {@code [USER]}, or {@code null}. */
+  private final String userName;
+
+  /** Pattern matching the user name entry, or {@code null}. */
+  private final Pattern userNamePattern;
+
+  /** All the additional patterns in one alternation, or {@code null}. */
+  private final Pattern additionalPattern;
+
+  /**
+   * Creates a filter with the default options.
+   */
+  public NextflowOutputFilter() {
+    this(null);
+  }
+
+  /**
+   * Creates a filter from an options map. Supported options are:
+   * <ul>
+   *   <li>{@code additionalPatterns} - {@code List<String>} of additional
+   *       regex patterns, whose matches are removed from every line once
+   *       the built-in rules have been applied (optional)</li>
+   *   <li>{@code sorted} - {@code Boolean} whether to sort the output
+   *       (default: {@code true})</li>
+   *   <li>{@code keepAnsi} - {@code Boolean} whether to keep ANSI codes
+   *       (default: {@code false})</li>
+   *   <li>{@code ignore} - {@code List<String>} of strings to filter out
+   *       (lines containing any of these strings will be removed)</li>
+   *   <li>{@code include} - {@code List<String>} of strings to include (only
+   *       lines containing at least one of these strings will be kept)</li>
+   *   <li>{@code parallel} - {@code Boolean} whether to filter chunks of
+   *       lines on the fork-join pool, using every core (default:
+   *       {@code false}). The result is identical to the sequential one.</li>
+   *   <li>{@code chunkSize} - {@code Integer} number of lines per chunk in
+   *       parallel mode (default: {@code 16384})</li>
+   *   <li>{@code mmap} - {@code Boolean} whether log files given as a
+   *       {@link Path} or {@link File} are memory-mapped and scanned as raw
+   *       UTF-8 bytes, only decoding the selected lines (default:
+   *       {@code false}). The result is identical for valid UTF-8.</li>
+   *   <li>{@code sortMemoryLimit} - {@code Long} estimated memory, in bytes,
+   *       the sortable lines may use while sorting before they are spilled
+   *       to sorted runs in temporary files (default: 64 MiB). The result
+   *       is identical to sorting in memory.</li>
+   *   <li>{@code pollInterval} - {@code Long} delay in milliseconds between
+   *       two polls of a file filtered while it is written, see
+   *       {@link #follow(Path)} (default: {@code 100})</li>
+   * </ul>
+   *
+   * @param options The filtering options, or {@code null} to use defaults.
+   */
+  @SuppressWarnings("unchecked")
+  public NextflowOutputFilter(final Map<String, Object> options) {
+    final Map<String, Object> optionsFixed;
+    if (options == null) {
+      optionsFixed = new HashMap<>();
+    } else {
+      optionsFixed = options;
+    }
+
+    List<String> additionalPatternsOption =
+        (List<String>) optionsFixed.get("additionalPatterns");
+    Boolean sortedOption = (Boolean) optionsFixed.get("sorted");
+    Boolean keepAnsiOption = (Boolean) optionsFixed.get("keepAnsi");
+    List<String> ignoreOption = (List<String>) optionsFixed.get("ignore");
+    List<String> includeOption = (List<String>) optionsFixed.get("include");
+    Boolean parallelOption = (Boolean) optionsFixed.get("parallel");
+    Number chunkSizeOption = (Number) optionsFixed.get("chunkSize");
+    Boolean mmapOption = (Boolean) optionsFixed.get("mmap");
+    Number sortMemoryLimitOption =
+        (Number) optionsFixed.get("sortMemoryLimit");
+    Number pollIntervalOption = (Number) optionsFixed.get("pollInterval");
+
+    this.sorted = sortedOption == null || sortedOption;
+    this.keepAnsi = keepAnsiOption != null && keepAnsiOption;
+    this.additionalPattern = compileAdditionalPatterns(
+      copyOf(additionalPatternsOption));
+    List<String> ignore = copyOf(ignoreOption);
+    List<String> include = copyOf(includeOption);
+    this.mmap = mmapOption != null && mmapOption;
+    if (ignore.isEmpty() && include.isEmpty()) {
+      this.selector = null;
+      this.byteSelector = null;
+    } else {
+      this.selector = new SubstringMatcher(ignore, include);
+      if (mmap) {
+        this.byteSelector = SubstringMatcher.forBytes(ignore, include);
+      } else {
+        this.byteSelector = null;
+      }
+    }
+    this.parallel = parallelOption != null && parallelOption;
+    if (chunkSizeOption == null) {
+      this.chunkSize = DEFAULT_CHUNK_SIZE;
+    } else if (chunkSizeOption.intValue() > 0) {
+      this.chunkSize = chunkSizeOption.intValue();
+    } else {
+      throw new IllegalArgumentException(
+        "The 'chunkSize' option must be positive: " + chunkSizeOption);
+    }
+
+    if (sortMemoryLimitOption == null) {
+      this.sortMemoryLimit = ExternalLineSorter.DEFAULT_MEMORY_LIMIT;
+    } else if (sortMemoryLimitOption.longValue() > 0) {
+      this.sortMemoryLimit = sortMemoryLimitOption.longValue();
+    } else {
+      throw new IllegalArgumentException(
+        "The 'sortMemoryLimit' option must be positive: "
+        + sortMemoryLimitOption);
+    }
+
+    if (pollIntervalOption == null) {
+      this.pollInterval = DEFAULT_POLL_INTERVAL;
+    } else if (pollIntervalOption.longValue() > 0) {
+      this.pollInterval = pollIntervalOption.longValue();
+    } else {
+      throw new IllegalArgumentException(
+        "The 'pollInterval' option must be positive: " + pollIntervalOption);
+    }
+
+    this.userName = System.getProperty("user.name");
+    if (userName != null && !userName.isEmpty()) {
+      this.userNamePattern = Pattern.compile(
+        "(userName\\s*:\\s*)" + Pattern.quote(userName));
+    } else {
+      this.userNamePattern = null;
+    }
+  }
+
+  /**
+   * Returns a shared filter with the default options. The filter is rebuilt
+   * when the {@code user.name} system property changes.
+   *
+   * @return A filter with the default options.
+   */
+  static NextflowOutputFilter defaultFilter() {
+    NextflowOutputFilter filter = defaultInstance;
+    String currentUser = System.getProperty("user.name");
+    if (filter == null || !Objects.equals(filter.userName, currentUser)) {
+      filter = new NextflowOutputFilter();
+      defaultInstance = filter;
+    }
+    return filter;
+  }
+
+  /**
+   * Compiles the additional patterns into a single alternation, so that they
+   * are all removed in one pass over each line. Like any alternation, the
+   * leftmost pattern matching at a position wins. Numbered backreferences
+   * are renumbered to the groups of their own pattern. Compiled patterns are
+   * cached by pattern list, as the same list is typically used by many
+   * tests.
+   *
+   * @param patterns The additional regex patterns.
+   * @return The combined pattern, or {@code null} if there is none.
+   * @throws java.util.regex.PatternSyntaxException If a pattern is invalid.
+   */
+  private static Pattern compileAdditionalPatterns(
+      final List<String> patterns) {
+    if (patterns.isEmpty()) {
+      return null;
+    }
+    Pattern pattern = ADDITIONAL_PATTERNS_CACHE.get(patterns);
+    if (pattern == null) {
+      StringBuilder combined = new StringBuilder();
+      int groups = 0;
+      for (String additional : patterns) {
+        int groupCount = Pattern.compile(additional).matcher("").groupCount();
+        if (combined.length() > 0) {
+          combined.append('|');
+        }
+        combined.append("(?:")
+          .append(renumberBackreferences(additional, groups, groupCount))
+          .append(')');
+        groups += groupCount;
+      }
+      pattern = Pattern.compile(combined.toString());
+      ADDITIONAL_PATTERNS_CACHE.put(patterns, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Shifts the numbered backreferences of a pattern, such as {@code \1},
+   * past the groups of the patterns before it in an alternation. Each
+   * reference is wrapped in a group so that the digits following it stay
+   * literal, and a reference to a missing group never matches, as it does
+   * in the pattern alone. References in quotes and character classes are
+   * left alone.
+   *
+   * @param pattern A valid regex pattern.
+   * @param offset The number of groups before the pattern.
+   * @param groupCount The number of groups of the pattern.
+   * @return The pattern with its backreferences renumbered.
+   */
+  static String renumberBackreferences(
+      final String pattern, final int offset, final int groupCount) {
+    if (pattern.indexOf('\\') < 0) {
+      return pattern;
+    }
+    StringBuilder renumbered = new StringBuilder(pattern.length());
+    int classDepth = 0;
+    boolean quoted = false;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (quoted) {
+        if (pattern.startsWith("\\E", i)) {
+          quoted = false;
+        }
+      } else if (c == '\\' && i + 1 < pattern.length()) {
+        char next = pattern.charAt(i + 1);
+        if (next == 'Q') {
+          quoted = true;
+        } else if (classDepth == 0 && next >= '1' && next <= '9') {
+          // Like Pattern, take more digits while they name a group
+          int end = i + 2;
+          while (end < pattern.length()
+              && Character.isDigit(pattern.charAt(end))
+              && Integer.parseInt(pattern.substring(i + 1, end + 1))
+                  <= groupCount) {
+            end++;
+          }
+          int group = Integer.parseInt(pattern.substring(i + 1, end));
+          if (group <= groupCount) {
+            renumbered.append("(?:\\").append(group + offset).append(')');
+          } else {
+            renumbered.append("(?!)");
+          }
+          i = end;
+          continue;
+        }
+        renumbered.append(c).append(next);
+        i += 2;
+        continue;
+      } else if (c == '[') {
+        classDepth++;
+      } else if (c == ']' && classDepth > 0) {
+        classDepth--;
+      }
+      renumbered.append(c);
+      i++;
+    }
+    return renumbered.toString();
+  }
+
+  /**
+   * Copies a list of strings, treating {@code null} as an empty list.
+   *
+   * @param values The values to copy, or {@code null}.
+   * @return An unmodifiable copy of the values.
+   */
+  private static List<String> copyOf(final List<String> values) {
+    if (values == null || values.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(new ArrayList<>(values));
+  }
+
+  /**
+   * Filters Nextflow stdout/stderr output.
+   *
+   * <p>Besides a String or a List of lines, the output can be a {@link Path}
+   * or {@link File} to a log file, a {@link Reader} or an {@link InputStream}.
+   * These are read lazily line by line, so only the surviving lines are kept
+   * in memory.
+   *
+   * @param output The stdout or stderr output (String or List) to filter
+   * @return The filtered output as a List<String> with unstable patterns
+   * removed
+   */
+  public List<String> filter(final Object output) {
+    List<String> lines = new ArrayList<>();
+    if (output != null) {
+      try {
+        read(output, lines::add);
+      } catch (IOException e) {
+        throw new RuntimeException(
+          "Failed to read Nextflow output: " + e.getMessage(), e);
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Filters a Nextflow log file line by line. With the {@code mmap} option,
+   * the file is memory-mapped and lines are selected and stripped of ANSI
+   * codes on the raw bytes, so discarded lines are never decoded.
+   *
+   * @param output The log file to filter, decoded as UTF-8.
+   * @return The filtered output lines.
+   * @throws IOException If the file cannot be read.
+   */
+  public List<String> filter(final Path output) throws IOException {
+    List<String> lines = new ArrayList<>();
+    read(output, lines::add);
+    return lines;
+  }
+
+  /**
+   * Filters Nextflow output read from a stream line by line. The stream is
+   * decoded as UTF-8 and is not closed.
+   *
+   * @param output The stream to filter.
+   * @return The filtered output lines.
+   * @throws IOException If the stream cannot be read.
+   */
+  public List<String> filter(final InputStream output) throws IOException {
+    List<String> lines = new ArrayList<>();
+    read(output, lines::add);
+    return lines;
+  }
+
+  /**
+   * Filters Nextflow output read from a reader line by line. The reader is
+   * not closed.
+   *
+   * @param output The reader to filter.
+   * @return The filtered output lines.
+   * @throws IOException If the reader cannot be read.
+   */
+  public List<String> filter(final Reader output) throws IOException {
+    List<String> lines = new ArrayList<>();
+    read(output, lines::add);
+    return lines;
+  }
+
+  /**
+   * Summarizes the filtered output by its number of lines and its MD5
+   * digest, without keeping the filtered lines in memory.
+   *
+   * <p>The digest is the one {@link Methods#listToMD5(ArrayList)} computes
+   * for the list returned by {@link #filter(Object)}, but it is updated as
+   * lines are filtered. When sorting, only the sortable lines are held back,
+   * and they are spilled to temporary files once they exceed the
+   * {@code sortMemoryLimit} budget.
+   *
+   * @param output The output to filter, of any type accepted by
+   *     {@link #filter(Object)}.
+   * @return A map with the {@code lineCount} and the hex {@code md5} of the
+   *     filtered lines.
+   */
+  public TreeMap<String, Object> digest(final Object output) {
+    LineDigest digest = new LineDigest();
+    if (output != null) {
+      try {
+        read(output, digest);
+      } catch (IOException e) {
+        throw new RuntimeException(
+          "Failed to read Nextflow output: " + e.getMessage(), e);
+      }
+    }
+    return digest.result();
+  }
+
+  /**
+   * Starts filtering a log file while it is being written, such as the
+   * {@code .nextflow.log} of a running workflow. The file is polled every
+   * {@code pollInterval} milliseconds in a background thread, and filtered
+   * again from its start if it is truncated or replaced.
+   *
+   * @param output The log file to follow, which may not exist yet.
+   * @return The follower, whose {@link NextflowOutputFollower#result()}
+   *     returns the filtered lines once the workflow has exited.
+   */
+  public NextflowOutputFollower<List<String>> follow(final Path output) {
+    return NextflowOutputFollower.start(
+      this, output, LineList::new, pollInterval);
+  }
+
+  /**
+   * Starts summarizing a log file while it is being written, like
+   * {@link #follow(Path)} but with the result of {@link #digest(Object)}.
+   *
+   * @param output The log file to follow, which may not exist yet.
+   * @return The follower, whose {@link NextflowOutputFollower#result()}
+   *     returns the line count and MD5 of the filtered lines.
+   */
+  public NextflowOutputFollower<TreeMap<String, Object>> followDigest(
+      final Path output) {
+    return NextflowOutputFollower.start(
+      this, output, LineDigest::new, pollInterval);
+  }
+
+  /**
+   * Starts filtering a new output, one raw line at a time.
+   *
+   * @param target The consumer receiving the filtered lines, in their final
+   *     order, once the session is finished.
+   * @return A new filtering session.
+   */
+  Session newSession(final Consumer<String> target) {
+    return new Session(target, false);
+  }
+
+  /**
+   * Filters an output of any supported type, passing the filtered lines on
+   * in their final order.
+   *
+   * @param output The output to filter.
+   * @param target The consumer receiving the filtered lines.
+   * @throws IOException If the output cannot be read.
+   */
+  private void read(final Object output, final Consumer<String> target)
+      throws IOException {
+    if (output instanceof File) {
+      read(((File) output).toPath(), target);
+    } else if (output instanceof Path && !mmap) {
+      try (InputStream stream = Files.newInputStream((Path) output)) {
+        read(stream, target);
+      }
+    } else if (output instanceof InputStream) {
+      read(new InputStreamReader((InputStream) output, StandardCharsets.UTF_8),
+          target);
+    } else {
+      Session session = new Session(target, output instanceof Path);
+      try {
+        feed(output, session);
+        session.finish();
+      } finally {
+        session.close();
+      }
+    }
+  }
+
+  /**
+   * Splits an output into raw lines and feeds them to a session.
+   *
+   * @param output A memory-mapped {@link Path}, a {@link Reader}, a
+   *     {@link List} of lines or any other object converted to a string.
+   * @param session The session receiving the lines.
+   * @throws IOException If the output cannot be read.
+   */
+  private void feed(final Object output, final Session session)
+      throws IOException {
+    if (output instanceof Path) {
+      MappedLogReader.forEachSelectedLine(
+          (Path) output, byteSelector, keepAnsi, session);
+    } else if (output instanceof Reader) {
+      forEachLine((Reader) output, session);
+    } else if (output instanceof List) {
+      // Handle workflow.stdout and workflow.stderr which are Lists
+      for (Object line : (List<?>) output) {
+        session.accept(line.toString());
+      }
+    } else {
+      // Convert any other type to string and split into lines
+      forEachLine(output.toString(), session);
+    }
+  }
+
+  /**
+   * Splits a string on {@code \n}, like {@code String.split("\n")} but
+   * without building the intermediate array.
+   *
+   * @param text The text to split.
+   * @param consumer The consumer receiving each line.
+   */
+  private static void forEachLine(
+      final String text,
+      final Consumer<String> consumer) {
+    int start = 0;
+    int end;
+    while ((end = text.indexOf('\n', start)) >= 0) {
+      consumer.accept(text.substring(start, end));
+      start = end + 1;
+    }
+    if (start < text.length()) {
+      consumer.accept(text.substring(start));
+    }
+  }
+
+  /**
+   * Reads lines separated by {@code \n} from a reader. Unlike
+   * {@link java.io.BufferedReader#readLine()}, carriage returns are kept so
+   * the lines are the same as when splitting the whole text.
+   *
+   * @param reader The reader to read from.
+   * @param consumer The consumer receiving each line.
+   * @throws IOException If the reader cannot be read.
+   */
+  private static void forEachLine(
+      final Reader reader,
+      final Consumer<String> consumer)
+      throws IOException {
+    char[] buffer = new char[READ_BUFFER_SIZE];
+    StringBuilder line = new StringBuilder();
+    int read;
+    while ((read = reader.read(buffer)) >= 0) {
+      int start = 0;
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] == '\n') {
+          line.append(buffer, start, i - start);
+          consumer.accept(line.toString());
+          line.setLength(0);
+          start = i + 1;
+        }
+      }
+      line.append(buffer, start, read - start);
+    }
+    if (line.length() > 0) {
+      consumer.accept(line.toString());
+    }
+  }
+
+  /**
+   * Incremental filtering state of a single output: the captured run name
+   * and the ordering of the lines kept so far.
+   *
+   * <p>In parallel mode the raw lines are grouped in chunks that are filtered
+   * on the common fork-join pool. The only dependency between lines is the
+   * run name captured from the launching line, so it is pre-scanned here as
+   * the lines arrive: each chunk knows the run name in effect at its start
+   * and the index, if any, at which it gets captured.
+   */
+  final class Session implements Consumer<String>, Closeable {
+
+    /**
+     * Whether the lines received are already selected and stripped of ANSI
+     * codes.
+     */
+    private final boolean preselected;
+
+    /** The run name captured from the launching line, if seen yet. */
+    private String capturedRunName;
+
+    /** The ordering stage receiving the filtered lines. */
+    private final SortedOutput output;
+
+    /** Raw lines of the chunk being built, in parallel mode. */
+    private List<String> chunk;
+
+    /** Run name in effect at the start of the current chunk. */
+    private String chunkRunName;
+
+    /** Index in the current chunk at which the run name is captured. */
+    private int chunkCaptureIndex = Integer.MAX_VALUE;
+
+    /** Chunks submitted to the pool, in input order. */
+    private final Deque<ForkJoinTask<List<String>>> pending =
+        new ArrayDeque<>();
+
+    /**
+     * Creates a session.
+     *
+     * @param target The consumer receiving the filtered lines, in their
+     *     final order.
+     * @param linesPreselected Whether the lines received are already
+     *     selected and stripped of ANSI codes, as done by
+     *     {@link MappedLogReader}.
+     */
+    Session(
+        final Consumer<String> target,
+        final boolean linesPreselected) {
+      this.output = new SortedOutput(target, sorted, sortMemoryLimit);
+      this.preselected = linesPreselected;
+    }
+
+    /**
+     * Filters one raw output line and keeps it if it survives.
+     *
+     * @param line The raw output line.
+     */
+    @Override
+    public void accept(final String line) {
+      if (parallel) {
+        acceptChunked(line);
+        return;
+      }
+
+      if (!preselected && !isSelected(line)) {
+        return;
+      }
+
+      String filtered = stripAnsi(line, preselected);
+
+      // Capture run name from launching line
+      if (capturedRunName == null) {
+        capturedRunName = captureRunName(filtered);
+      }
+
+      keep(filterLine(filtered, capturedRunName), output);
+    }
+
+    /**
+     * Adds a raw line to the current chunk, pre-scanning it for the run name
+     * and submitting the chunk once it is full.
+     *
+     * @param line The raw output line.
+     */
+    private void acceptChunked(final String line) {
+      if (chunk == null) {
+        chunk = new ArrayList<>(chunkSize);
+        chunkRunName = capturedRunName;
+        chunkCaptureIndex = Integer.MAX_VALUE;
+      }
+      chunk.add(line);
+
+      if (capturedRunName == null
+          && mayBeLaunchingLine(line)
+          && (preselected || isSelected(line))) {
+        capturedRunName = captureRunName(stripAnsi(line, preselected));
+        if (capturedRunName != null) {
+          chunkCaptureIndex = chunk.size() - 1;
+        }
+      }
+
+      if (chunk.size() >= chunkSize) {
+        submitChunk();
+      }
+    }
+
+    /**
+     * Checks cheaply whether a raw line can be the launching line once ANSI
+     * codes are stripped.
+     *
+     * @param line The raw output line.
+     * @return {@code false} if the line cannot contain the run name.
+     */
+    private boolean mayBeLaunchingLine(final String line) {
+      return line.contains("Launching")
+          || (!keepAnsi
+            && !preselected
+            && line.indexOf('\u001B') >= 0
+            && stripAnsi(line, false).contains("Launching"));
+    }
+
+    /**
+     * Submits the current chunk to the pool, collecting the oldest chunks
+     * first when too many are in flight so memory stays bounded.
+     */
+    private void submitChunk() {
+      List<String> lines = chunk;
+      String startRunName = chunkRunName;
+      int captureIndex = chunkCaptureIndex;
+      String runName = capturedRunName;
+      boolean linesPreselected = preselected;
+      chunk = null;
+
+      while (pending.size() >= MAX_PENDING_CHUNKS_PER_CORE
+          * ForkJoinPool.getCommonPoolParallelism()) {
+        pending.removeFirst().join().forEach(output);
+      }
+      pending.addLast(ForkJoinPool.commonPool().submit(() -> filterChunk(
+          lines, startRunName, captureIndex, runName, linesPreselected)));
+    }
+
+    /**
+     * Filters the lines left and passes the sorted lines on, once all the
+     * raw lines have been received.
+     */
+    void finish() {
+      if (chunk != null) {
+        if (pending.isEmpty()) {
+          // A single chunk is not worth handing over to the pool
+          filterChunk(chunk, chunkRunName, chunkCaptureIndex,
+              capturedRunName, preselected).forEach(output);
+          chunk = null;
+        } else {
+          submitChunk();
+        }
+      }
+      while (!pending.isEmpty()) {
+        pending.removeFirst().join().forEach(output);
+      }
+      output.finish();
+    }
+
+    /**
+     * Releases the lines held back for sorting, including any temporary
+     * file, if the session was not finished.
+     */
+    @Override
+    public void close() {
+      output.discard();
+    }
+  }
+
+  /**
+   * Filters a chunk of raw lines, as the sequential session would.
+   *
+   * @param lines The raw output lines.
+   * @param startRunName The run name in effect before the chunk.
+   * @param captureIndex Index of the line from which {@code runName} is in
+   *     effect, or {@link Integer#MAX_VALUE} if it is not captured in the
+   *     chunk.
+   * @param runName The run name in effect from {@code captureIndex}.
+   * @param preselected Whether the lines are already selected and stripped
+   *     of ANSI codes.
+   * @return The filtered lines of the chunk.
+   */
+  private List<String> filterChunk(
+      final List<String> lines,
+      final String startRunName,
+      final int captureIndex,
+      final String runName,
+      final boolean preselected) {
+    List<String> result = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (!preselected && !isSelected(line)) {
+        continue;
+      }
+      final String lineRunName;
+      if (i >= captureIndex) {
+        lineRunName = runName;
+      } else {
+        lineRunName = startRunName;
+      }
+      keep(filterLine(stripAnsi(line, preselected), lineRunName),
+          result::add);
+    }
+    return result;
+  }
+
+  /**
+   * Passes a filtered line on unless it is blank.
+   *
+   * @param filtered The filtered line.
+   * @param lines The consumer of kept lines.
+   */
+  private static void keep(
+      final String filtered,
+      final Consumer<String> lines) {
+    // Only add non-empty lines (filter out empty lines)
+    if (!filtered.trim().isEmpty()) {
+      lines.accept(filtered);
+    }
+  }
+
+  /**
+   * Checks a raw line against the {@code ignore} and {@code include}
+   * options, in a single pass over the line. This is done before any other
+   * processing so that discarded lines cost almost nothing.
+   *
+   * @param line The raw output line.
+   * @return {@code true} if the line should be kept.
+   */
+  private boolean isSelected(final String line) {
+    return selector == null || selector.isSelected(line);
+  }
+
+  /**
+   * Strips ANSI escape codes unless {@code keepAnsi} is set.
+   *
+   * @param line The output line.
+   * @param stripped Whether the codes were already stripped.
+   * @return The line without ANSI escape codes.
+   */
+  private String stripAnsi(final String line, final boolean stripped) {
+    if (stripped || keepAnsi || line.indexOf('\u001B') < 0) {
+      return line;
+    }
+    return ANSI_PATTERN.matcher(line).replaceAll("");
+  }
+
+  /**
+   * Captures the run name from the Nextflow launching line.
+   *
+   * @param line The output line, with ANSI codes already stripped.
+   * @return The run name, or {@code null} if the line is not a launching
+   *     line.
+   */
+  static String captureRunName(final String line) {
+    if (line.contains("Launching")
+        && line.contains("[")
+        && line.contains("]")) {
+      Matcher matcher = RUN_NAME_PATTERN.matcher(line);
+      if (matcher.find()) {
+        return matcher.group(1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sanitizes a Nextflow output line by replacing non-deterministic values
+   * with stable placeholders, including usernames, timestamps, hashes, paths,
+   * run names, container engines, and software versions.
+   * Matches of the additional patterns are then removed.
+   *
+   * @param line The output line to sanitize.
+   * @param capturedRunName The run name captured from the Nextflow launching
+   *     line, or {@code null} if no run name was captured.
+   * @return The sanitized output line.
+   */
+  public String filterLine(
+      final String line,
+      final String capturedRunName) {
+    String filtered = line;
+
+    // Replace username value in patterns like "userName : max"
+    if (userNamePattern != null && filtered.contains("userName")) {
+      filtered = userNamePattern.matcher(filtered).replaceAll("$1[USER]");
+    }
+
+    // Remove timestamp patterns
+    if (filtered.indexOf('-') >= 0) {
+      filtered = replaceAll(ISO_TIMESTAMP_PATTERN, filtered, "[TIMESTAMP]");
+    }
+    if (filtered.indexOf('/') >= 0) {
+      filtered = replaceAll(US_TIMESTAMP_PATTERN, filtered, "[TIMESTAMP]");
+    }
+
+    // Remove Nextflow process execution hashes and NFT_HASH work dir
+    if (filtered.indexOf('[') >= 0 && filtered.indexOf('/') >= 0) {
+      filtered = replaceAll(NXF_HASH_PATTERN, filtered, "[NXF_HASH]");
+    }
+    if (hasHexRun(filtered, NFT_HASH_MIN_LENGTH)) {
+      filtered = replaceAll(NFT_HASH_PATTERN, filtered, "[NFT_HASH]");
+    }
+
+    // Remove revision hashes
+    if (filtered.contains("revision: ")) {
+      filtered = replaceAll(
+        REVISION_PATTERN, filtered, "revision: [REVISION]");
+    }
+
+    // Remove Nextflow version update notifications
+    if (filtered.contains("is available")) {
+      filtered = replaceAll(UPDATE_AVAILABLE_PATTERN, filtered, "");
+    }
+    if (filtered.contains("Please consider updating your version")) {
+      filtered = replaceAll(UPDATE_ADVICE_PATTERN, filtered, "");
+    }
+
+    // Replace absolute paths with [PATH] placeholder
+    filtered = PathPrefixReplacer.current().replace(filtered);
+
+    // Remove run name using captured run name from launching line
+    if (capturedRunName != null) {
+      // Replace bracketed run name: [run_name]
+      filtered = filtered.replace(
+        "[" + capturedRunName + "]",
+        "[RUN_NAME]");
+      // Replace unbracketed run name: run_name
+      filtered = filtered.replace(
+        capturedRunName,
+        "[RUN_NAME]");
+    }
+
+    // Remove containerEngine messages
+    if (filtered.contains("containerEngine")) {
+      filtered = replaceAll(CONTAINER_ENGINE_PATTERN, filtered, "");
+    }
+
+    // Replace reproducibility solutions by [CONTAINER], in keyword order
+    if (CONTAINER_KEYWORDS_PATTERN.matcher(filtered).find()) {
+      for (String keyword : CONTAINER_KEYWORDS) {
+        filtered = filtered.replace(keyword, "[CONTAINER]");
+      }
+    }
+
+    // Replace nf-core pipeline versions and NEXTFLOW versions
+    if (filtered.contains("nf-core/")) {
+      filtered = replaceAll(
+        NFCORE_VERSION_PATTERN, filtered, "$1[VERSION]");
+    }
+    if (filtered.contains("N E X T F L O W")) {
+      filtered = replaceAll(
+        NEXTFLOW_VERSION_PATTERN, filtered,
+        "N E X T F L O W  ~  version [VERSION]");
+    }
+
+    // Remove the user-supplied additional patterns
+    if (additionalPattern != null) {
+      filtered = replaceAll(additionalPattern, filtered, "");
+    }
+
+    return filtered;
+  }
+
+  /**
+   * Replaces every match of a precompiled pattern.
+   *
+   * @param pattern The pattern to replace.
+   * @param text The text to process.
+   * @param replacement The replacement string.
+   * @return The text with all matches replaced.
+   */
+  private static String replaceAll(
+      final Pattern pattern,
+      final String text,
+      final String replacement) {
+    return pattern.matcher(text).replaceAll(replacement);
+  }
+
+  /**
+   * Checks whether a text contains a run of at least {@code minLength}
+   * lower-case hexadecimal digits.
+   *
+   * @param text The text to scan.
+   * @param minLength The minimum run length.
+   * @return {@code true} if such a run exists.
+   */
+  private static boolean hasHexRun(final String text, final int minLength) {
+    int run = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) {
+        run++;
+        if (run >= minLength) {
+          return true;
+        }
+      } else {
+        run = 0;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether a filtered line belongs to the block of lines sorted
+   * alphabetically, such as process submissions, warnings and errors.
+   *
+   * @param line The filtered output line.
+   * @return {@code true} if the line should be sorted.
+   */
+  static boolean isSortable(final String line) {
+    return line.contains("Staging foreign file")
+        || line.contains("Submitted process")
+        || line.startsWith("Creating env using conda:")
+        || line.startsWith("Pulling Singularity image")
+        || line.startsWith("ERROR ~")
+        || line.startsWith("WARN:")
+        || (
+          line.contains("Check ")
+          && line.contains(" file for details")
+        );
+  }
+
+  /**
+   * Receives the filtered lines of an output, in their final order, and
+   * builds a result from them.
+   *
+   * @param <T> The type of the result.
+   */
+  interface LineCollector<T> extends Consumer<String> {
+
+    /**
+     * Returns the result, once all the lines have been received.
+     *
+     * @return The result.
+     */
+    T result();
+  }
+
+  /** Collects the filtered lines into a list. */
+  private static final class LineList implements LineCollector<List<String>> {
+
+    /** The lines so far. */
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * Adds a filtered line to the list.
+     *
+     * @param line The filtered line.
+     */
+    @Override
+    public void accept(final String line) {
+      lines.add(line);
+    }
+
+    /**
+     * Returns the filtered lines.
+     *
+     * @return The lines.
+     */
+    @Override
+    public List<String> result() {
+      return lines;
+    }
+  }
+
+  /**
+   * Line count and MD5 digest of the filtered lines, updated one line at a
+   * time.
+   */
+  private static final class LineDigest
+      implements LineCollector<TreeMap<String, Object>> {
+
+    /** The digest of the lines so far. */
+    private final MessageDigest md5;
+
+    /** The number of lines so far. */
+    private long lineCount;
+
+    /** Creates an empty digest. */
+    private LineDigest() {
+      this.md5 = Digests.md5();
+    }
+
+    /**
+     * Adds a filtered line to the digest.
+     *
+     * @param line The filtered line.
+     */
+    @Override
+    public void accept(final String line) {
+      Digests.update(md5, line);
+      lineCount++;
+    }
+
+    /**
+     * Returns the line count and the hex MD5 digest.
+     *
+     * @return A map with the {@code lineCount} and {@code md5} keys.
+     */
+    @Override
+    public TreeMap<String, Object> result() {
+      TreeMap<String, Object> summary = new TreeMap<>();
+      summary.put("lineCount", lineCount);
+      summary.put("md5", Digests.toHex(md5.digest()));
+      return summary;
+    }
+  }
+}
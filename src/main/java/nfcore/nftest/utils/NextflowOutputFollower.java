@@ -0,0 +1,314 @@
+package nfcore.nftest.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Filters a Nextflow log file while it is being written, so that the
+ * filtering overlaps with the workflow run.
+ *
+ * <p>A background thread polls the file for appended bytes and feeds every
+ * complete line to a {@link NextflowOutputFilter} session. The file may not
+ * exist yet when following starts. If it is truncated or replaced, as
+ * Nextflow does when it rotates {@code .nextflow.log} at the start of a run,
+ * filtering starts again from the beginning of the new content.
+ *
+ * <p>Call {@link #result()} once the workflow has exited: the lines written
+ * so far are read, and the filtered lines or digest are returned. Until then
+ * the thread keeps polling, so a follower whose result may not be retrieved
+ * must be closed, for example with try-with-resources.
+ *
+ * @param <T> The type of the result, the filtered lines or their digest.
+ */
+public final class NextflowOutputFollower<T> implements Closeable {
+
+  /** Size of the buffer used to read appended bytes. */
+  private static final int READ_BUFFER_SIZE = 65_536;
+
+  /** Initial size of the buffer holding an unfinished line. */
+  private static final int INITIAL_LINE_SIZE = 256;
+
+  /** The filter applied to the lines. */
+  private final NextflowOutputFilter filter;
+
+  /** The followed file. */
+  private final Path path;
+
+  /** Creates the collector of the filtered lines of each new content. */
+  private final Supplier<NextflowOutputFilter.LineCollector<T>> collectors;
+
+  /** Delay between two polls of the file, in milliseconds. */
+  private final long pollInterval;
+
+  /** The thread following the file. */
+  private final Thread thread;
+
+  /** Whether the thread should stop once it has read the file to its end. */
+  private volatile boolean stopRequested;
+
+  /** Collector of the current content, owned by the following thread. */
+  private NextflowOutputFilter.LineCollector<T> collector;
+
+  /** Filtering session of the current content. */
+  private NextflowOutputFilter.Session session;
+
+  /** Channel of the file being read, or {@code null} if not opened yet. */
+  private FileChannel channel;
+
+  /** Identity of the file being read, or {@code null} if unknown. */
+  private Object fileKey;
+
+  /** Offset of the next byte to read. */
+  private long position;
+
+  /** Bytes of the unfinished last line. */
+  private byte[] line = new byte[INITIAL_LINE_SIZE];
+
+  /** Number of bytes in {@link #line}. */
+  private int lineLength;
+
+  /** The result, once the thread has finished. */
+  private T result;
+
+  /** The failure of the following thread, if any. */
+  private RuntimeException failure;
+
+  /**
+   * Prepares to follow a file.
+   *
+   * @param outputFilter The filter applied to the lines.
+   * @param file The file to follow.
+   * @param lineCollectors Creates the collector of the filtered lines.
+   * @param pollMillis Delay between two polls, in milliseconds.
+   */
+  private NextflowOutputFollower(
+      final NextflowOutputFilter outputFilter,
+      final Path file,
+      final Supplier<NextflowOutputFilter.LineCollector<T>> lineCollectors,
+      final long pollMillis) {
+    this.filter = outputFilter;
+    this.path = file;
+    this.collectors = lineCollectors;
+    this.pollInterval = pollMillis;
+    this.thread = new Thread(this::follow, "nft-utils-follow-" + file);
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts following a file in a background thread.
+   *
+   * @param <T> The type of the result.
+   * @param filter The filter applied to the lines.
+   * @param path The file to follow, which may not exist yet.
+   * @param collectors Creates the collector of the filtered lines, again
+   *     whenever the file is truncated or replaced.
+   * @param pollInterval Delay between two polls, in milliseconds.
+   * @return The running follower.
+   */
+  static <T> NextflowOutputFollower<T> start(
+      final NextflowOutputFilter filter,
+      final Path path,
+      final Supplier<NextflowOutputFilter.LineCollector<T>> collectors,
+      final long pollInterval) {
+    NextflowOutputFollower<T> follower =
+        new NextflowOutputFollower<>(filter, path, collectors, pollInterval);
+    follower.thread.start();
+    return follower;
+  }
+
+  /**
+   * Stops following once the lines written so far are read, and returns
+   * the result of filtering them. Call it after the workflow has exited.
+   *
+   * @return The filtered lines or their digest.
+   * @throws RuntimeException If the file could not be read.
+   */
+  public T result() {
+    stop();
+    if (failure != null) {
+      throw failure;
+    }
+    return result;
+  }
+
+  /**
+   * Stops following, discarding the result if it was not retrieved.
+   */
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Asks the following thread to read the file to its end and finish, and
+   * waits for it.
+   */
+  private void stop() {
+    stopRequested = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(
+        "Interrupted while following " + path, e);
+    }
+  }
+
+  /**
+   * Body of the following thread: polls the file until stopped, then
+   * filters the last unfinished line and builds the result.
+   */
+  private void follow() {
+    try {
+      restart();
+      while (true) {
+        // Read the stop request first, so the last read sees everything
+        // written before the request
+        boolean stopping = stopRequested;
+        poll();
+        if (stopping) {
+          break;
+        }
+        // Woken up early by stop()
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pollInterval));
+      }
+      if (lineLength > 0) {
+        session.accept(decodeLine());
+      }
+      session.finish();
+      result = collector.result();
+    } catch (IOException e) {
+      failure = new RuntimeException(
+        "Failed to follow Nextflow output " + path + ": " + e.getMessage(),
+        e);
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      if (session != null) {
+        session.close();
+      }
+      closeChannel();
+    }
+  }
+
+  /**
+   * Reads the bytes appended since the last poll, starting again if the
+   * file was truncated or replaced.
+   *
+   * @throws IOException If the file cannot be read.
+   */
+  private void poll() throws IOException {
+    Object currentKey;
+    try {
+      currentKey = Files.readAttributes(path, BasicFileAttributes.class)
+          .fileKey();
+    } catch (NoSuchFileException e) {
+      // Not created yet, or being rotated
+      return;
+    }
+
+    if (channel != null
+        && currentKey != null
+        && !Objects.equals(currentKey, fileKey)) {
+      // The file was replaced: filter the new one from its start
+      closeChannel();
+      restart();
+    }
+    if (channel == null) {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      fileKey = currentKey;
+    }
+    if (channel.size() < position) {
+      // The file was truncated: filter it again from its start
+      restart();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    int read;
+    while ((read = channel.read(buffer, position)) > 0) {
+      position += read;
+      byte[] bytes = buffer.array();
+      int start = 0;
+      for (int i = 0; i < read; i++) {
+        if (bytes[i] == '\n') {
+          append(bytes, start, i);
+          session.accept(decodeLine());
+          start = i + 1;
+        }
+      }
+      append(bytes, start, read);
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Discards what was filtered so far and starts a new session.
+   */
+  private void restart() {
+    if (session != null) {
+      session.close();
+    }
+    collector = collectors.get();
+    session = filter.newSession(collector);
+    position = 0;
+    lineLength = 0;
+  }
+
+  /**
+   * Appends bytes to the unfinished line.
+   *
+   * @param bytes The bytes read.
+   * @param from Index of the first byte to append.
+   * @param to Index after the last byte to append.
+   */
+  private void append(final byte[] bytes, final int from, final int to) {
+    int length = to - from;
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(
+        line, Math.max(lineLength + length, line.length * 2));
+    }
+    System.arraycopy(bytes, from, line, lineLength, length);
+    lineLength += length;
+  }
+
+  /**
+   * Decodes the complete line and empties the line buffer.
+   *
+   * @return The line, decoded as UTF-8.
+   */
+  private String decodeLine() {
+    String decoded = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+    lineLength = 0;
+    return decoded;
+  }
+
+  /**
+   * Closes the channel of the file being read, if any.
+   */
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Do not fail following if closing the file fails; just log it
+        System.err.println(
+          "Warning: failed to close " + path + ": " + e.getMessage());
+      }
+      channel = null;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package nfcore.nftest.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replaces well-known absolute path prefixes, such as the working directory
+ * and the Nextflow cache directories, with a {@code [PATH]} placeholder.
+ *
+ * <p>The prefixes are resolved once from the environment and compiled into a
+ * character trie, so each line is replaced in a single left-to-right pass
+ * taking the longest prefix matching at each position. Call
+ * {@link #refresh()} when the environment changes between tests.
+ */
+final class PathPrefixReplacer {
+
+  /** Placeholder replacing every matched prefix. */
+  private static final String PLACEHOLDER = "[PATH]";
+
+  /**
+   * Environment variables whose values are replaced by {@code [PATH]}.
+   */
+  private static final String[] PATH_ENV_VARS = {
+      "HOME",
+      "NFT_WORKDIR",
+      "NXF_CACHE_DIR",
+      "NXF_CONDA_CACHEDIR",
+      "NXF_HOME",
+      "NXF_SINGULARITY_CACHEDIR",
+      "NXF_SINGULARITY_LIBRARYDIR",
+      "NXF_TEMP",
+      "NXF_WORK"
+  };
+
+  /** Replacer for the current environment, resolved lazily. */
+  private static volatile PathPrefixReplacer currentReplacer;
+
+  /** The prefixes replaced, longest first. */
+  private final List<String> prefixes;
+
+  /** Root of the trie of prefixes. */
+  private final Node root = new Node();
+
+  /**
+   * Node of the prefix trie. Children are few, so they are kept in small
+   * parallel arrays searched linearly.
+   */
+  private static final class Node {
+
+    /** Characters leading to each child. */
+    private char[] keys = new char[0];
+
+    /** Children, in the same order as {@link #keys}. */
+    private Node[] children = new Node[0];
+
+    /** Whether a prefix ends at this node. */
+    private boolean terminal;
+
+    /**
+     * Returns the child reached with a character.
+     *
+     * @param c The next character.
+     * @return The child, or {@code null} if there is none.
+     */
+    private Node child(final char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns the child reached with a character, creating it if needed.
+     *
+     * @param c The next character.
+     * @return The child.
+     */
+    private Node getOrAddChild(final char c) {
+      Node node = child(c);
+      if (node == null) {
+        node = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = c;
+        children[children.length - 1] = node;
+      }
+      return node;
+    }
+  }
+
+  /**
+   * Compiles a set of prefixes. Empty prefixes are ignored.
+   *
+   * @param pathPrefixes The prefixes to replace.
+   */
+  PathPrefixReplacer(final List<String> pathPrefixes) {
+    Set<String> unique = new LinkedHashSet<>();
+    for (String prefix : pathPrefixes) {
+      if (prefix != null && !prefix.isEmpty()) {
+        unique.add(prefix);
+      }
+    }
+    List<String> sortedPrefixes = new ArrayList<>(unique);
+    sortedPrefixes.sort((a, b) -> Integer.compare(b.length(), a.length()));
+    this.prefixes = Collections.unmodifiableList(sortedPrefixes);
+
+    for (String prefix : prefixes) {
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.getOrAddChild(prefix.charAt(i));
+      }
+      node.terminal = true;
+    }
+  }
+
+  /**
+   * Returns the replacer for the current environment, resolving the
+   * prefixes on first use.
+   *
+   * @return The current replacer.
+   */
+  static PathPrefixReplacer current() {
+    PathPrefixReplacer replacer = currentReplacer;
+    if (replacer == null) {
+      replacer = refresh();
+    }
+    return replacer;
+  }
+
+  /**
+   * Resolves the prefixes again from the environment variables and the
+   * {@code user.dir} and {@code user.home} system properties.
+   *
+   * @return The new current replacer.
+   */
+  static PathPrefixReplacer refresh() {
+    PathPrefixReplacer replacer = new PathPrefixReplacer(resolvePrefixes());
+    currentReplacer = replacer;
+    return replacer;
+  }
+
+  /**
+   * Collects the paths to replace from the environment.
+   *
+   * @return The paths to replace, in no particular order.
+   */
+  static List<String> resolvePrefixes() {
+    List<String> pathsToReplace = new ArrayList<>();
+
+    // Get the current working directory
+    String workingDir = System.getProperty("user.dir");
+    if (workingDir != null) {
+      pathsToReplace.add(workingDir);
+    }
+
+    // Check for various environment variables
+    for (String envVar : PATH_ENV_VARS) {
+      String envValue = System.getenv(envVar);
+      if (envValue != null && !envValue.isEmpty() && !envValue.equals("~")) {
+        pathsToReplace.add(envValue);
+      }
+    }
+
+    // Handle default NXF_HOME case: if NXF_HOME is null, Nextflow uses
+    // $HOME/.nextflow
+    String nxfHome = System.getenv("NXF_HOME");
+    if (nxfHome == null || nxfHome.isEmpty()) {
+      String home = System.getProperty("user.home");
+      if (home != null && !home.isEmpty() && !home.equals("~")) {
+        pathsToReplace.add(home + "/.nextflow");
+      }
+    }
+
+    return pathsToReplace;
+  }
+
+  /**
+   * Returns the prefixes replaced, longest first.
+   *
+   * @return The prefixes.
+   */
+  List<String> getPrefixes() {
+    return prefixes;
+  }
+
+  /**
+   * Replaces every prefix occurrence with {@code [PATH]}, scanning the text
+   * once and taking the longest prefix matching at each position.
+   *
+   * @param text The text to filter.
+   * @return The filtered text, or {@code text} itself if nothing matched.
+   */
+  String replace(final String text) {
+    StringBuilder result = null;
+    int copied = 0;
+    int i = 0;
+    while (i < text.length()) {
+      int length = longestMatch(text, i);
+      if (length > 0) {
+        if (result == null) {
+          result = new StringBuilder(text.length());
+        }
+        result.append(text, copied, i).append(PLACEHOLDER);
+        i += length;
+        copied = i;
+      } else {
+        i++;
+      }
+    }
+    if (result == null) {
+      return text;
+    }
+    return result.append(text, copied, text.length()).toString();
+  }
+
+  /**
+   * Finds the longest prefix starting at a position.
+   *
+   * @param text The text to scan.
+   * @param start The start position.
+   * @return The length of the longest prefix found, or {@code 0}.
+   */
+  private int longestMatch(final String text, final int start) {
+    Node node = root;
+    int longest = 0;
+    for (int i = start; i < text.length(); i++) {
+      node = node.child(text.charAt(i));
+      if (node == null) {
+        break;
+      }
+      if (node.terminal) {
+        longest = i - start + 1;
+      }
+    }
+    return longest;
+  }
+}
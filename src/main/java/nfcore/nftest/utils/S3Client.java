@@ -0,0 +1,729 @@
+package nfcore.nftest.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Minimal S3 client listing objects with the ListObjectsV2 API over the JDK
+ * {@link HttpClient}, so that listing a bucket does not start the AWS CLI.
+ *
+ * <p>Requests are signed with AWS Signature Version 4 using the credentials
+ * of the {@code AWS_ACCESS_KEY_ID}, {@code AWS_SECRET_ACCESS_KEY} and
+ * {@code AWS_SESSION_TOKEN} environment variables, or sent unsigned for
+ * public buckets. The endpoint can be replaced, for instance by a local
+ * S3-compatible server, in which case buckets are addressed in the path.
+ * A request sent to the wrong region is retried once in the region of the
+ * bucket reported by S3.
+ */
+final class S3Client {
+
+  /** Number of attempts of a request failing with a server error. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** Delay before retrying a request, multiplied by the attempt number. */
+  private static final long RETRY_DELAY_MILLIS = 200;
+
+  /** Timeout of a connection or a request, in seconds. */
+  private static final long TIMEOUT_SECONDS = 60;
+
+  /** First HTTP status code of server errors. */
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  /** HTTP status code of a successful request. */
+  private static final int HTTP_OK = 200;
+
+  /** Region used when none is configured. */
+  private static final String DEFAULT_REGION = "us-east-1";
+
+  /** SHA-256 of an empty payload. */
+  private static final String EMPTY_PAYLOAD_SHA256 =
+      "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+  /** Format of the timestamp of a signed request. */
+  private static final DateTimeFormatter AMZ_DATE =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+  /** Characters left as is by {@link #uriEncode(String, boolean)}. */
+  private static final String UNRESERVED =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.~";
+
+  /** The hexadecimal digits, in upper case as required by URI encoding. */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /** Mask converting a signed byte to its unsigned value. */
+  private static final int BYTE_MASK = 0xff;
+
+  /** Number of bits in a hexadecimal digit. */
+  private static final int HEX_DIGIT_BITS = 4;
+
+  /** Mask of a hexadecimal digit. */
+  private static final int HEX_DIGIT_MASK = 0xf;
+
+  /** The endpoint, or {@code null} for the AWS endpoint of the region. */
+  private final URI endpoint;
+
+  /** The access key, or {@code null} to send unsigned requests. */
+  private final String accessKey;
+
+  /** The secret key. */
+  private final String secretKey;
+
+  /** The session token, or {@code null}. */
+  private final String sessionToken;
+
+  /** The HTTP client. */
+  private final HttpClient http;
+
+  /** The region requests are signed for, updated on redirects. */
+  private volatile String region;
+
+  /**
+   * An object of a listing.
+   */
+  static final class S3Object {
+
+    /** The key. */
+    private final String key;
+
+    /** The size in bytes. */
+    private final long size;
+
+    /** The entity tag, without quotes. */
+    private final String etag;
+
+    /**
+     * Records an object.
+     *
+     * @param objectKey The key.
+     * @param bytes The size in bytes.
+     * @param entityTag The entity tag, without quotes.
+     */
+    S3Object(final String objectKey, final long bytes, final String entityTag) {
+      this.key = objectKey;
+      this.size = bytes;
+      this.etag = entityTag;
+    }
+
+    /**
+     * Returns the key of the object.
+     *
+     * @return The key.
+     */
+    String getKey() {
+      return key;
+    }
+
+    /**
+     * Returns the size of the object.
+     *
+     * @return The size in bytes.
+     */
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the entity tag of the object.
+     *
+     * @return The entity tag, without quotes.
+     */
+    String getETag() {
+      return etag;
+    }
+  }
+
+  /**
+   * A page of a listing.
+   */
+  static final class Page {
+
+    /** The objects of the page. */
+    private final List<S3Object> objects = new ArrayList<>();
+
+    /** The common prefixes of the page, with a delimiter. */
+    private final List<String> commonPrefixes = new ArrayList<>();
+
+    /** The token of the next page, or {@code null} on the last page. */
+    private String nextToken;
+
+    /**
+     * Returns the objects of the page.
+     *
+     * @return The objects.
+     */
+    List<S3Object> getObjects() {
+      return objects;
+    }
+
+    /**
+     * Returns the common prefixes of the page.
+     *
+     * @return The prefixes, ending with the delimiter.
+     */
+    List<String> getCommonPrefixes() {
+      return commonPrefixes;
+    }
+
+    /**
+     * Returns the token of the next page.
+     *
+     * @return The token, or {@code null} on the last page.
+     */
+    String getNextToken() {
+      return nextToken;
+    }
+  }
+
+  /**
+   * Creates a client.
+   *
+   * @param customEndpoint The endpoint, or {@code null} for AWS.
+   * @param signingRegion The region.
+   * @param access The access key, or {@code null} for unsigned requests.
+   * @param secret The secret key.
+   * @param token The session token, or {@code null}.
+   */
+  S3Client(
+      final URI customEndpoint,
+      final String signingRegion,
+      final String access,
+      final String secret,
+      final String token) {
+    this.endpoint = customEndpoint;
+    this.region = signingRegion;
+    this.accessKey = access;
+    this.secretKey = secret;
+    this.sessionToken = token;
+    this.http = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .build();
+  }
+
+  /**
+   * Creates a client from the options of a listing and the environment.
+   * Options: {@code endpoint} – {@code String} URL of an S3-compatible
+   * server, {@code region} – {@code String} region of the bucket,
+   * {@code noSignRequest} – {@code Boolean} send unsigned requests. The
+   * endpoint and region default to the {@code AWS_ENDPOINT_URL_S3} or
+   * {@code AWS_ENDPOINT_URL}, and {@code AWS_REGION} or
+   * {@code AWS_DEFAULT_REGION} environment variables.
+   *
+   * @param options The options.
+   * @param env The environment variables.
+   * @return The client, or {@code null} if requests must be signed but the
+   *     environment holds no credentials.
+   */
+  static S3Client fromOptions(
+      final Map<String, Object> options,
+      final Map<String, String> env) {
+    Boolean noSignRequest = (Boolean) options
+      .getOrDefault("noSignRequest", false);
+    String endpoint = (String) options.get("endpoint");
+    if (endpoint == null) {
+      endpoint = env.get("AWS_ENDPOINT_URL_S3");
+    }
+    if (endpoint == null) {
+      endpoint = env.get("AWS_ENDPOINT_URL");
+    }
+    String region = (String) options.get("region");
+    if (region == null) {
+      region = env.get("AWS_REGION");
+    }
+    if (region == null) {
+      region = env.get("AWS_DEFAULT_REGION");
+    }
+    if (region == null) {
+      region = DEFAULT_REGION;
+    }
+    URI endpointUri = null;
+    if (endpoint != null && !endpoint.isEmpty()) {
+      endpointUri = URI.create(endpoint);
+    }
+    if (noSignRequest) {
+      return new S3Client(endpointUri, region, null, null, null);
+    }
+    String access = env.get("AWS_ACCESS_KEY_ID");
+    String secret = env.get("AWS_SECRET_ACCESS_KEY");
+    if (access == null || access.isEmpty()
+        || secret == null || secret.isEmpty()) {
+      return null;
+    }
+    return new S3Client(
+      endpointUri, region, access, secret, env.get("AWS_SESSION_TOKEN"));
+  }
+
+  /**
+   * Describes the server and the mode of the requests, to tell apart the
+   * listings of a bucket seen by different clients.
+   *
+   * @return The endpoint, {@code aws} by default, followed by
+   *     {@code signed} or {@code unsigned}.
+   */
+  String describe() {
+    String server = "aws";
+    if (endpoint != null) {
+      server = endpoint.toString();
+    }
+    if (accessKey == null) {
+      return server + " unsigned";
+    }
+    return server + " signed";
+  }
+
+  /**
+   * Lists one page of the objects of a bucket with ListObjectsV2.
+   *
+   * @param bucket The bucket.
+   * @param prefix The prefix of the keys.
+   * @param delimiter The delimiter grouping keys into common prefixes, or
+   *     {@code null} to list all the keys.
+   * @param continuationToken The token of the page, or {@code null} for the
+   *     first page.
+   * @return The page.
+   * @throws IOException If the request fails.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  Page listObjects(
+      final String bucket,
+      final String prefix,
+      final String delimiter,
+      final String continuationToken)
+      throws IOException, InterruptedException {
+    return listObjects(bucket, prefix, delimiter, continuationToken, 0);
+  }
+
+  /**
+   * Lists one page of at most a given number of objects of a bucket with
+   * ListObjectsV2.
+   *
+   * @param bucket The bucket.
+   * @param prefix The prefix of the keys.
+   * @param delimiter The delimiter grouping keys into common prefixes, or
+   *     {@code null} to list all the keys.
+   * @param continuationToken The token of the page, or {@code null} for the
+   *     first page.
+   * @param maxKeys The maximum number of keys and common prefixes of the
+   *     page, or {@code 0} for the default of S3.
+   * @return The page.
+   * @throws IOException If the request fails.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  Page listObjects(
+      final String bucket,
+      final String prefix,
+      final String delimiter,
+      final String continuationToken,
+      final int maxKeys)
+      throws IOException, InterruptedException {
+    Map<String, String> query = new TreeMap<>();
+    if (maxKeys > 0) {
+      query.put("max-keys", Integer.toString(maxKeys));
+    }
+    query.put("list-type", "2");
+    query.put("encoding-type", "url");
+    query.put("prefix", prefix);
+    if (delimiter != null) {
+      query.put("delimiter", delimiter);
+    }
+    if (continuationToken != null) {
+      query.put("continuation-token", continuationToken);
+    }
+    HttpResponse<InputStream> response = send(bucket, query);
+    try (InputStream body = response.body()) {
+      return parsePage(body);
+    } catch (XMLStreamException e) {
+      throw new IOException(
+        "Invalid listing of s3://" + bucket + "/" + prefix + ": "
+        + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the size and entity tag of an object, listing the first key
+   * starting with its key, which is the key itself if the object exists.
+   *
+   * @param bucket The bucket.
+   * @param key The key of the object.
+   * @return The object, or {@code null} if it does not exist.
+   * @throws IOException If the request fails.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  S3Object describeObject(final String bucket, final String key)
+      throws IOException, InterruptedException {
+    for (S3Object object : listObjects(bucket, key, null, null, 1)
+        .getObjects()) {
+      if (object.getKey().equals(key)) {
+        return object;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sends a GET request on a bucket, retrying server errors and requests
+   * sent to the wrong region.
+   *
+   * @param bucket The bucket.
+   * @param query The query parameters.
+   * @return The successful response.
+   * @throws IOException If the request fails.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  private HttpResponse<InputStream> send(
+      final String bucket,
+      final Map<String, String> query)
+      throws IOException, InterruptedException {
+    boolean regionRetried = false;
+    for (int attempt = 1;; attempt++) {
+      String signingRegion = region;
+      HttpRequest request = buildRequest(bucket, query, signingRegion);
+      HttpResponse<InputStream> response =
+          http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+      int status = response.statusCode();
+      if (status == HTTP_OK) {
+        return response;
+      }
+      String bucketRegion = response.headers()
+        .firstValue("x-amz-bucket-region").orElse(null);
+      String error;
+      try (InputStream body = response.body()) {
+        error = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      if (bucketRegion != null && !bucketRegion.equals(signingRegion)
+          && !regionRetried) {
+        region = bucketRegion;
+        regionRetried = true;
+        attempt--;
+      } else if (status < HTTP_SERVER_ERROR || attempt >= MAX_ATTEMPTS) {
+        throw new IOException(
+          "S3 returned HTTP " + status + " for " + request.uri() + ": "
+          + error);
+      } else {
+        Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+      }
+    }
+  }
+
+  /**
+   * Builds a signed, or unsigned, GET request on a bucket.
+   *
+   * @param bucket The bucket.
+   * @param query The query parameters.
+   * @param signingRegion The region to sign the request for.
+   * @return The request.
+   */
+  private HttpRequest buildRequest(
+      final String bucket,
+      final Map<String, String> query,
+      final String signingRegion) {
+    String base;
+    String path;
+    if (endpoint != null) {
+      base = endpoint.getScheme() + "://" + endpoint.getRawAuthority();
+      path = endpoint.getRawPath();
+      if (path == null) {
+        path = "";
+      }
+      if (path.endsWith("/")) {
+        path = path.substring(0, path.length() - 1);
+      }
+      path += "/" + uriEncode(bucket, false) + "/";
+    } else if (bucket.contains(".")) {
+      // Dotted buckets do not match the certificate of virtual hosts
+      base = "https://s3." + signingRegion + ".amazonaws.com";
+      path = "/" + uriEncode(bucket, false) + "/";
+    } else {
+      base = "https://" + bucket + ".s3." + signingRegion + ".amazonaws.com";
+      path = "/";
+    }
+    String canonicalQuery = canonicalQuery(query);
+    URI uri = URI.create(base + path + "?" + canonicalQuery);
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+      .timeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+      .GET();
+    if (accessKey != null) {
+      String amzDate = ZonedDateTime.now(ZoneOffset.UTC).format(AMZ_DATE);
+      Map<String, String> headers = new TreeMap<>();
+      headers.put("host", hostHeader(uri));
+      headers.put("x-amz-content-sha256", EMPTY_PAYLOAD_SHA256);
+      headers.put("x-amz-date", amzDate);
+      if (sessionToken != null && !sessionToken.isEmpty()) {
+        headers.put("x-amz-security-token", sessionToken);
+      }
+      String authorization = authorization(
+          "GET", path, canonicalQuery, headers,
+          accessKey, secretKey, signingRegion);
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        if (!header.getKey().equals("host")) {
+          request.header(header.getKey(), header.getValue());
+        }
+      }
+      request.header("Authorization", authorization);
+    }
+    return request.build();
+  }
+
+  /**
+   * Builds the value of the {@code Authorization} header of a request with
+   * AWS Signature Version 4.
+   *
+   * @param method The HTTP method.
+   * @param path The URI-encoded path.
+   * @param canonicalQuery The canonical query string.
+   * @param headers The signed headers, by lower-case name, including
+   *     {@code host}, {@code x-amz-date} and {@code x-amz-content-sha256}.
+   * @param access The access key.
+   * @param secret The secret key.
+   * @param signingRegion The region.
+   * @return The header value.
+   */
+  static String authorization(
+      final String method,
+      final String path,
+      final String canonicalQuery,
+      final Map<String, String> headers,
+      final String access,
+      final String secret,
+      final String signingRegion) {
+    String payloadHash = headers.get("x-amz-content-sha256");
+    String amzDate = headers.get("x-amz-date");
+    Map<String, String> sortedHeaders = new TreeMap<>(headers);
+    StringBuilder canonicalHeaders = new StringBuilder();
+    StringBuilder signedHeaders = new StringBuilder();
+    for (Map.Entry<String, String> header : sortedHeaders.entrySet()) {
+      canonicalHeaders.append(header.getKey()).append(':')
+        .append(header.getValue().trim()).append('\n');
+      if (signedHeaders.length() > 0) {
+        signedHeaders.append(';');
+      }
+      signedHeaders.append(header.getKey());
+    }
+    String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery
+        + "\n" + canonicalHeaders + "\n" + signedHeaders + "\n"
+        + payloadHash;
+
+    String date = amzDate.substring(0, amzDate.indexOf('T'));
+    String scope = date + "/" + signingRegion + "/s3/aws4_request";
+    String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope
+        + "\n" + hex(sha256(canonicalRequest));
+
+    byte[] key = hmac(
+        ("AWS4" + secret).getBytes(StandardCharsets.UTF_8), date);
+    key = hmac(key, signingRegion);
+    key = hmac(key, "s3");
+    key = hmac(key, "aws4_request");
+    return "AWS4-HMAC-SHA256 Credential=" + access + "/" + scope
+        + ", SignedHeaders=" + signedHeaders
+        + ", Signature=" + hex(hmac(key, stringToSign));
+  }
+
+  /**
+   * Builds the canonical query string of parameters: encoded names and
+   * values, sorted by name.
+   *
+   * @param query The parameters.
+   * @return The query string.
+   */
+  static String canonicalQuery(final Map<String, String> query) {
+    Map<String, String> encoded = new TreeMap<>();
+    for (Map.Entry<String, String> parameter : query.entrySet()) {
+      encoded.put(
+          uriEncode(parameter.getKey(), true),
+          uriEncode(parameter.getValue(), true));
+    }
+    StringBuilder canonical = new StringBuilder();
+    for (Map.Entry<String, String> parameter : encoded.entrySet()) {
+      if (canonical.length() > 0) {
+        canonical.append('&');
+      }
+      canonical.append(parameter.getKey()).append('=')
+        .append(parameter.getValue());
+    }
+    return canonical.toString();
+  }
+
+  /**
+   * Encodes a string as required by AWS Signature Version 4: every byte of
+   * its UTF-8 encoding other than unreserved characters is percent-encoded.
+   *
+   * @param value The string.
+   * @param encodeSlash Whether {@code /} is encoded too, as in query
+   *     parameters.
+   * @return The encoded string.
+   */
+  static String uriEncode(final String value, final boolean encodeSlash) {
+    StringBuilder encoded = new StringBuilder();
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & BYTE_MASK);
+      if (UNRESERVED.indexOf(c) >= 0 || c == '/' && !encodeSlash) {
+        encoded.append(c);
+      } else {
+        encoded.append('%')
+          .append(HEX_DIGITS[(c >>> HEX_DIGIT_BITS) & HEX_DIGIT_MASK])
+          .append(HEX_DIGITS[c & HEX_DIGIT_MASK]);
+      }
+    }
+    return encoded.toString();
+  }
+
+  /**
+   * Returns the {@code Host} header the HTTP client sends for a URI.
+   *
+   * @param uri The URI.
+   * @return The host, with the port unless it is the default one.
+   */
+  private static String hostHeader(final URI uri) {
+    if (uri.getPort() < 0) {
+      return uri.getHost();
+    }
+    return uri.getHost() + ":" + uri.getPort();
+  }
+
+  /**
+   * Parses a ListObjectsV2 response.
+   *
+   * @param body The XML response.
+   * @return The page.
+   * @throws XMLStreamException If the response is not valid XML.
+   */
+  static Page parsePage(final InputStream body) throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(
+        XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    XMLStreamReader reader = factory.createXMLStreamReader(body);
+    Page page = new Page();
+    // Names of the open elements, other than the leaves read below
+    List<String> elements = new ArrayList<>();
+    boolean truncated = false;
+    boolean urlEncoded = false;
+    String key = null;
+    long size = 0;
+    String etag = null;
+    try {
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT) {
+          String name = elements.remove(elements.size() - 1);
+          if (name.equals("Contents") && elements.size() == 1) {
+            page.objects.add(new S3Object(key, size, etag));
+            key = null;
+            size = 0;
+            etag = null;
+          }
+          continue;
+        } else if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = reader.getLocalName();
+        String parent = "";
+        if (!elements.isEmpty()) {
+          parent = elements.get(elements.size() - 1);
+        }
+        boolean topLevel = elements.size() == 1;
+        if (topLevel && name.equals("IsTruncated")) {
+          truncated = Boolean.parseBoolean(reader.getElementText().trim());
+        } else if (topLevel && name.equals("NextContinuationToken")) {
+          page.nextToken = reader.getElementText();
+        } else if (topLevel && name.equals("EncodingType")) {
+          urlEncoded = reader.getElementText().trim().equals("url");
+        } else if (parent.equals("Contents") && name.equals("Key")) {
+          key = reader.getElementText();
+        } else if (parent.equals("Contents") && name.equals("Size")) {
+          size = Long.parseLong(reader.getElementText().trim());
+        } else if (parent.equals("Contents") && name.equals("ETag")) {
+          etag = reader.getElementText().replace("\"", "");
+        } else if (parent.equals("CommonPrefixes")
+            && name.equals("Prefix")) {
+          page.commonPrefixes.add(reader.getElementText());
+        } else {
+          elements.add(name);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    if (!truncated) {
+      page.nextToken = null;
+    }
+    if (urlEncoded) {
+      List<S3Object> objects = new ArrayList<>(page.objects);
+      page.objects.clear();
+      for (S3Object object : objects) {
+        page.objects.add(new S3Object(
+            URLDecoder.decode(object.key, StandardCharsets.UTF_8),
+            object.size,
+            object.etag));
+      }
+      page.commonPrefixes.replaceAll(
+          prefix -> URLDecoder.decode(prefix, StandardCharsets.UTF_8));
+    }
+    return page;
+  }
+
+  /**
+   * Computes the SHA-256 of a string.
+   *
+   * @param value The string.
+   * @return The digest of its UTF-8 encoding.
+   */
+  private static byte[] sha256(final String value) {
+    try {
+      return MessageDigest.getInstance("SHA-256")
+        .digest(value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-256 algorithm not available", e);
+    }
+  }
+
+  /**
+   * Computes the HMAC-SHA256 of a string.
+   *
+   * @param key The key.
+   * @param value The string.
+   * @return The HMAC of its UTF-8 encoding.
+   */
+  private static byte[] hmac(final byte[] key, final String value) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new RuntimeException("HmacSHA256 algorithm not available", e);
+    }
+  }
+
+  /**
+   * Formats bytes in lowercase hexadecimal.
+   *
+   * @param bytes The bytes.
+   * @return The hexadecimal string.
+   */
+  private static String hex(final byte[] bytes) {
+    return Digests.toHex(bytes);
+  }
+}
@@ -0,0 +1,292 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Lists S3 paths for {@link Methods#getAllFilesFromPath(
+ * java.util.LinkedHashMap, String)}, with {@link S3Walker} or the AWS CLI,
+ * and selects the keys matching its globs.
+ */
+final class S3Lister {
+
+  /**
+   * Prevents instantiation of this utility class.
+   */
+  private S3Lister() {
+  }
+
+  /**
+   * Lists files under an S3 prefix, with the ListObjectsV2 API when
+   * credentials are set in the environment or with {@code noSignRequest},
+   * with the AWS CLI otherwise, and from the S3 listing cache when it is
+   * enabled.
+   *
+   * @param options The options of
+   *     {@link Methods#getAllFilesFromPath(java.util.LinkedHashMap,
+   *     String)}.
+   * @param s3Path The S3 path or prefix to list.
+   * @param globs The include and ignore globs.
+   * @param ignoreGlobs The ignore globs, whose {@code dir/**} form skips
+   *     the listing of whole common prefixes.
+   * @param includeDir Whether directory markers should be included in the
+   * results.
+   * @return A sorted list of S3 object keys matching the include and exclude
+   * filters.
+   * @throws IOException If S3 cannot be listed.
+   * @throws InterruptedException If the current thread is interrupted while
+   *     waiting for S3.
+   */
+  static List<String> list(
+      final Map<String, Object> options,
+      final String s3Path,
+      final GlobFilter globs,
+      final List<String> ignoreGlobs,
+      final boolean includeDir)
+      throws IOException, InterruptedException {
+    Boolean noSignRequest = (Boolean) options
+      .getOrDefault("noSignRequest", false);
+    Boolean awsCli = (Boolean) options
+      .getOrDefault("awsCli", false);
+    S3ListingCache cache = S3ListingCache.fromOptions(options);
+
+    String normalizedPath = s3Path;
+    if (!s3Path.endsWith("/")) {
+      normalizedPath += "/";
+    }
+    String prefix = s3Prefix(normalizedPath);
+
+    S3Client client = null;
+    if (!awsCli) {
+      client = S3Client.fromOptions(options, System.getenv());
+    }
+    // Listings differing by the mode of the requests or by the prefixes
+    // skipped are cached apart
+    String variant;
+    if (client == null) {
+      variant = "aws-cli";
+      if (noSignRequest) {
+        variant += " unsigned";
+      }
+    } else {
+      variant = client.describe();
+      List<String> skipped = DirectoryWalker.subtreePrefixes(ignoreGlobs);
+      if (!skipped.isEmpty()) {
+        variant += " skipping " + skipped;
+        if (includeDir) {
+          variant += " with markers";
+        }
+      }
+    }
+
+    List<String> keys = null;
+    if (cache != null) {
+      keys = cache.get(normalizedPath, variant);
+    }
+    if (keys == null) {
+      if (client == null) {
+        // Profiles, SSO and instance roles are left to the AWS CLI
+        keys = listS3KeysViaCli(normalizedPath, noSignRequest);
+      } else {
+        int s3Parallelism = S3Walker.DEFAULT_PARALLELISM;
+        Number parallelism = (Number) options.get("parallelism");
+        if (parallelism != null) {
+          s3Parallelism = parallelism.intValue();
+        }
+        keys = listS3Keys(
+          client, normalizedPath, ignoreGlobs, includeDir, s3Parallelism);
+      }
+      if (cache != null) {
+        cache.put(normalizedPath, variant, keys);
+      }
+    }
+
+    List<String> files = new ArrayList<>();
+    for (String key : keys) {
+      String relativePath = selectS3Key(prefix, key, globs, includeDir);
+      if (relativePath != null) {
+        files.add(relativePath);
+      }
+    }
+    return files.stream().sorted().collect(Collectors.toList());
+  }
+
+  /**
+   * Number of fields expected in an AWS S3 CLI listing line.
+   */
+  private static final int AWS_S3_LIST_FIELDS = 4;
+
+  /**
+   * Index of the object key in an AWS S3 CLI listing line.
+   */
+  private static final int AWS_S3_KEY_INDEX = 3;
+
+  /**
+   * Lists the keys under an S3 prefix using the AWS CLI
+   * ({@code aws s3 ls --recursive}).
+   *
+   * @param normalizedPath The S3 path or prefix to list, ending with
+   *     {@code /}.
+   * @param noSignRequest Whether to use the AWS CLI {@code --no-sign-request}
+   * option.
+   *
+   * @return The keys, including directory markers.
+   * @throws IOException If an I/O error occurs while executing the AWS CLI or
+   *     reading its output.
+   * @throws InterruptedException If the current thread is interrupted while
+   *     waiting for the AWS CLI process to complete.
+   */
+  private static List<String> listS3KeysViaCli(
+      final String normalizedPath,
+      final boolean noSignRequest)
+      throws IOException, InterruptedException {
+    List<String> cmd = new ArrayList<>(
+      Arrays.asList("aws", "s3", "ls", "--recursive")
+    );
+    if (noSignRequest) {
+      cmd.add("--no-sign-request");
+    }
+    cmd.add(normalizedPath);
+
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.redirectErrorStream(false);
+    Process process = pb.start();
+
+    List<String> keys = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(
+          process.getInputStream(),
+          StandardCharsets.UTF_8
+        )
+    )) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Output format: "2024-01-01 12:00:00 12345 prefix/path/to/file.txt"
+        String[] parts = line.trim().split("\\s+", AWS_S3_LIST_FIELDS);
+        if (parts.length < AWS_S3_LIST_FIELDS) {
+          continue;
+        }
+        keys.add(parts[AWS_S3_KEY_INDEX]);
+      }
+    }
+
+    int exitCode = process.waitFor();
+    if (exitCode != 0) {
+      throw new IOException(
+          "AWS CLI returned exit code " + exitCode
+          + " when listing: " + normalizedPath);
+    }
+    return keys;
+  }
+
+  /**
+   * Lists the keys under an S3 prefix with the ListObjectsV2 API, listing
+   * common prefixes at the same time and skipping those excluded by the
+   * ignore globs.
+   *
+   * @param client The S3 client.
+   * @param normalizedPath The S3 path or prefix to list, ending with
+   *     {@code /}.
+   * @param ignoreGlobs The ignore globs, whose {@code dir/**} form skips
+   *     the listing of whole common prefixes.
+   * @param includeDir Whether the directory markers of skipped prefixes
+   *     should be listed.
+   * @param parallelism The number of prefixes listed at the same time.
+   * @return The keys, including directory markers.
+   * @throws IOException If a request to S3 fails.
+   * @throws InterruptedException If the current thread is interrupted while
+   *     waiting for S3.
+   */
+  private static List<String> listS3Keys(
+      final S3Client client,
+      final String normalizedPath,
+      final List<String> ignoreGlobs,
+      final boolean includeDir,
+      final int parallelism)
+      throws IOException, InterruptedException {
+    String bucketAndPrefix = normalizedPath.substring("s3://".length());
+    String bucket = bucketAndPrefix.substring(0, bucketAndPrefix.indexOf('/'));
+    String prefix = s3Prefix(normalizedPath);
+
+    S3Walker walker =
+        new S3Walker(client, bucket, prefix, ignoreGlobs, includeDir);
+    List<String> keys = new ArrayList<>();
+    for (S3Client.S3Object object : walker.walk(parallelism)) {
+      keys.add(object.getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the key prefix of an S3 path.
+   *
+   * @param normalizedPath The S3 path, ending with {@code /}.
+   * @return The prefix, empty or ending with {@code /}.
+   */
+  private static String s3Prefix(final String normalizedPath) {
+    String bucketAndPrefix = normalizedPath.substring("s3://".length());
+    int firstSlash = bucketAndPrefix.indexOf('/');
+    if (firstSlash >= 0) {
+      return bucketAndPrefix.substring(firstSlash + 1);
+    }
+    return "";
+  }
+
+  /**
+   * Selects an S3 key of a listing. Keys ending in {@code /} are treated as
+   * directory markers and selected only when {@code includeDir} is
+   * {@code true}.
+   *
+   * @param prefix The prefix listed.
+   * @param fullKey The key.
+   * @param globs The include and ignore globs.
+   * @param includeDir Whether directory markers are selected.
+   * @return The key relative to the prefix, or {@code null} if the key is
+   *     not selected.
+   */
+  private static String selectS3Key(
+      final String prefix,
+      final String fullKey,
+      final GlobFilter globs,
+      final boolean includeDir) {
+    String relativePath;
+    if (!prefix.isEmpty() && fullKey.startsWith(prefix)) {
+      relativePath = fullKey.substring(prefix.length());
+    } else {
+      relativePath = fullKey;
+    }
+
+    if (relativePath.isEmpty()) {
+      return null;
+    }
+
+    boolean isDir = relativePath.endsWith("/");
+    if (isDir && !includeDir) {
+      return null;
+    }
+
+    final String pathString;
+    if (isDir) {
+      pathString = relativePath.substring(0, relativePath.length() - 1);
+    } else {
+      pathString = relativePath;
+    }
+    // Normalized like a Unix path, without a Path that fails on keys the
+    // file system encoding cannot represent
+    String normalized = pathString.replaceAll("/{2,}", "/");
+    if (normalized.length() > 1 && normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    if (globs.matches(normalized)) {
+      return relativePath;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,305 @@
+package nfcore.nftest.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in on-disk cache of S3 listings, answering repeated listings of
+ * buckets that do not change, such as test data, with a file read instead
+ * of requests to S3.
+ *
+ * <p>A listing is stored with the S3 path listed and a variant telling
+ * apart the listings of that path that may differ, such as signed and
+ * unsigned ones or those skipping different prefixes. Nothing tells when
+ * the content of a bucket changes, so listings expire after a time to
+ * live, and can be invalidated explicitly.
+ *
+ * <p>As with {@link ListingIndex}, listings are written atomically, one
+ * file per path and variant, so that several processes can share the
+ * cache, and the least recently used ones are deleted once their total
+ * size exceeds a limit.
+ */
+final class S3ListingCache {
+
+  /** Default limit of the total size of the cached listings, 64 MiB. */
+  static final long DEFAULT_MAX_SIZE = 67_108_864L;
+
+  /** Default time to live of the cached listings, one day. */
+  static final Duration DEFAULT_TTL = Duration.ofDays(1);
+
+  /** Extension of the cached listings. */
+  private static final String EXTENSION = ".s3ls";
+
+  /** First bytes of a cached listing, "NFTS". */
+  private static final int MAGIC = 0x4e465453;
+
+  /** Version of the format of the cached listings. */
+  private static final int VERSION = 1;
+
+  /** Size of the buffers used to read and write cached listings. */
+  private static final int IO_BUFFER_SIZE = 65_536;
+
+  /** The directory holding the cached listings. */
+  private final Path directory;
+
+  /** Time after which a cached listing is listed again. */
+  private final Duration ttl;
+
+  /** Limit of the total size of the cached listings, in bytes. */
+  private final long maxSize;
+
+  /** The clock telling the age of the cached listings. */
+  private final Clock clock;
+
+  /**
+   * Uses listings cached in a directory.
+   *
+   * @param cacheDirectory The directory holding the cached listings,
+   *     created if needed.
+   * @param timeToLive Time after which a cached listing is listed again.
+   * @param maxTotalSize Limit of the total size of the cached listings, in
+   *     bytes.
+   * @param now The clock telling the age of the cached listings.
+   */
+  S3ListingCache(
+      final Path cacheDirectory,
+      final Duration timeToLive,
+      final long maxTotalSize,
+      final Clock now) {
+    this.directory = cacheDirectory;
+    this.ttl = timeToLive;
+    this.maxSize = maxTotalSize;
+    this.clock = now;
+  }
+
+  /**
+   * Reads the {@code s3ListingCache}, {@code s3ListingCacheTtl} and
+   * {@code s3ListingCacheMaxSize} options of the listing functions.
+   *
+   * @param options The options.
+   * @return The cache, or {@code null} if it is not enabled.
+   * @throws IllegalArgumentException If an option is invalid.
+   */
+  static S3ListingCache fromOptions(final Map<String, Object> options) {
+    Object enabled = options.get("s3ListingCache");
+    if (enabled == null || Boolean.FALSE.equals(enabled)) {
+      return null;
+    }
+
+    Duration timeToLive = DEFAULT_TTL;
+    Number ttlOption = (Number) options.get("s3ListingCacheTtl");
+    if (ttlOption != null) {
+      if (ttlOption.longValue() <= 0) {
+        throw new IllegalArgumentException(
+          "The 's3ListingCacheTtl' option must be positive: " + ttlOption);
+      }
+      timeToLive = Duration.ofSeconds(ttlOption.longValue());
+    }
+
+    long maxTotalSize = DEFAULT_MAX_SIZE;
+    Number maxSizeOption = (Number) options.get("s3ListingCacheMaxSize");
+    if (maxSizeOption != null) {
+      if (maxSizeOption.longValue() <= 0) {
+        throw new IllegalArgumentException(
+          "The 's3ListingCacheMaxSize' option must be positive: "
+          + maxSizeOption);
+      }
+      maxTotalSize = maxSizeOption.longValue();
+    }
+    return new S3ListingCache(
+      directory(options), timeToLive, maxTotalSize, Clock.systemUTC());
+  }
+
+  /**
+   * Returns the directory of the cache selected by the
+   * {@code s3ListingCache} option.
+   *
+   * @param options The options.
+   * @return The directory given by the option, or the default one.
+   */
+  static Path directory(final Map<String, Object> options) {
+    Object enabled = options.get("s3ListingCache");
+    if (enabled == null || enabled instanceof Boolean) {
+      return Paths.get(
+        System.getProperty("java.io.tmpdir"), "nft-utils-s3-listings");
+    }
+    return Paths.get(enabled.toString());
+  }
+
+  /**
+   * Returns a cached listing that has not expired.
+   *
+   * @param s3Path The S3 path listed, ending with {@code /}.
+   * @param variant The variant of the listing.
+   * @return The keys listed, or {@code null} if no listing is cached.
+   */
+  List<String> get(final String s3Path, final String variant) {
+    Path file = directory.resolve(fileName(s3Path, variant));
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file), IO_BUFFER_SIZE))) {
+      if (input.readInt() != MAGIC
+          || input.readInt() != VERSION
+          || !input.readUTF().equals(s3Path)
+          || !input.readUTF().equals(variant)) {
+        return null;
+      }
+      Instant listed = Instant.ofEpochMilli(input.readLong());
+      if (!listed.plus(ttl).isAfter(clock.instant())) {
+        return null;
+      }
+      int count = input.readInt();
+      List<String> keys = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        keys.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+      // Mark the listing as recently used
+      ListingIndex.touch(file);
+      return keys;
+    } catch (IOException | RuntimeException e) {
+      // A corrupted or concurrently replaced listing is listed again
+      return null;
+    }
+  }
+
+  /**
+   * Caches a listing atomically and evicts old listings. Failures are only
+   * logged, since the listing itself succeeded.
+   *
+   * @param s3Path The S3 path listed, ending with {@code /}.
+   * @param variant The variant of the listing.
+   * @param keys The keys listed.
+   */
+  void put(final String s3Path, final String variant, final List<String> keys) {
+    Path file = directory.resolve(fileName(s3Path, variant));
+    Path temporary = null;
+    try {
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "listing-", ".tmp");
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(
+            Files.newOutputStream(temporary), IO_BUFFER_SIZE))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(s3Path);
+        output.writeUTF(variant);
+        output.writeLong(clock.millis());
+        output.writeInt(keys.size());
+        for (String key : keys) {
+          byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+          output.writeInt(bytes.length);
+          output.write(bytes);
+        }
+      }
+      if (Files.size(temporary) > maxSize) {
+        // An older listing must not be returned instead
+        Files.delete(temporary);
+        Files.deleteIfExists(file);
+        return;
+      }
+      Files.move(
+          temporary, file,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+      ListingIndex.evict(directory, EXTENSION, maxSize, file);
+    } catch (IOException e) {
+      System.err.println(
+        "Warning: failed to cache the listing of " + s3Path + ": "
+        + e.getMessage());
+    } finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+          temporary.toFile().deleteOnExit();
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the cached listings that may hold keys below an S3 path, those
+   * of the path, of the paths below it and of the paths above it, whatever
+   * their variant or age.
+   *
+   * @param cacheDirectory The directory holding the cached listings.
+   * @param s3Path The S3 path, such as {@code s3://bucket/data/}, or
+   *     {@code s3://} for every listing.
+   * @return The number of listings deleted.
+   * @throws IOException If the cache directory cannot be listed.
+   */
+  static int invalidate(final Path cacheDirectory, final String s3Path)
+      throws IOException {
+    if (!Files.isDirectory(cacheDirectory)) {
+      return 0;
+    }
+    String normalizedPath = s3Path;
+    if (!s3Path.endsWith("/")) {
+      normalizedPath += "/";
+    }
+    int deleted = 0;
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(cacheDirectory, "*" + EXTENSION)) {
+      for (Path file : stream) {
+        String listed = listedPath(file);
+        // Unreadable listings are deleted too
+        if ((listed == null
+            || listed.startsWith(normalizedPath)
+            || normalizedPath.startsWith(listed))
+            && Files.deleteIfExists(file)) {
+          deleted++;
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Reads the S3 path of a cached listing.
+   *
+   * @param file The cached listing.
+   * @return The S3 path listed, or {@code null} if the file is unreadable.
+   */
+  private static String listedPath(final Path file) {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file), IO_BUFFER_SIZE))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return null;
+      }
+      return input.readUTF();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the name of the file of a cached listing.
+   *
+   * @param s3Path The S3 path listed.
+   * @param variant The variant of the listing.
+   * @return The file name.
+   */
+  private static String fileName(final String s3Path, final String variant) {
+    return ListingIndex.fileName(s3Path + "\n" + variant, EXTENSION);
+  }
+}
@@ -0,0 +1,273 @@
+package nfcore.nftest.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists the objects below an S3 prefix with {@link S3Client}, listing
+ * common prefixes at the same time and skipping those whose whole content
+ * is ignored.
+ *
+ * <p>Prefixes are listed level by level with the {@code /} delimiter, and
+ * each common prefix is listed by its own task on a bounded fork-join pool.
+ * A common prefix matching {@code P} for an ignore glob {@code P/**} is not
+ * listed at all, as {@link DirectoryWalker} does not walk such
+ * directories. Below the depth at which ignore globs can still match,
+ * common prefixes are listed in full, page after page, instead of level by
+ * level. Without such ignore globs, only the first level is listed with the
+ * delimiter, so a bucket spread over many top-level prefixes is listed in
+ * about the time of its largest prefix.
+ *
+ * <p>The result is the same as that of a full listing filtered by the
+ * ignore globs. A skipped common prefix {@code dir/} may be an object
+ * itself, a directory marker that the ignore globs do not exclude: when
+ * markers are selected, such prefixes are checked with a one-key listing.
+ */
+final class S3Walker {
+
+  /** Default number of prefixes listed at the same time. */
+  static final int DEFAULT_PARALLELISM = 16;
+
+  /** The delimiter of the levels of keys. */
+  private static final String DELIMITER = "/";
+
+  /** Depth of the prefixes matched by globs crossing directories. */
+  private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  /** The client sending the requests. */
+  private final S3Client client;
+
+  /** The bucket. */
+  private final String bucket;
+
+  /** The prefix, empty or ending with {@code /}. */
+  private final String prefix;
+
+  /**
+   * Matches the paths, relative to the prefix, of the common prefixes not
+   * to list, or {@code null} if no common prefix is skipped.
+   */
+  private final GlobFilter pruneFilter;
+
+  /** Depth of the deepest common prefixes that may be skipped. */
+  private final int pruneDepth;
+
+  /** Whether directory markers of skipped common prefixes are listed. */
+  private final boolean markers;
+
+  /**
+   * Creates a walker.
+   *
+   * @param s3Client The client sending the requests.
+   * @param bucketName The bucket.
+   * @param keyPrefix The prefix, empty or ending with {@code /}.
+   * @param ignoreGlobs The ignore globs, relative to the prefix, whose
+   *     {@code P/**} form skips common prefixes.
+   * @param includeMarkers Whether directory markers are selected, so that
+   *     those of skipped common prefixes must be listed.
+   */
+  S3Walker(
+      final S3Client s3Client,
+      final String bucketName,
+      final String keyPrefix,
+      final List<String> ignoreGlobs,
+      final boolean includeMarkers) {
+    this.client = s3Client;
+    this.bucket = bucketName;
+    this.prefix = keyPrefix;
+    this.markers = includeMarkers;
+    List<String> prefixGlobs = DirectoryWalker.subtreePrefixes(ignoreGlobs);
+    int depth = 0;
+    for (String glob : prefixGlobs) {
+      if (glob.contains("**") || glob.contains("{")) {
+        // May match at any depth
+        depth = UNBOUNDED;
+      } else {
+        depth = Math.max(depth, glob.split(DELIMITER, -1).length);
+      }
+    }
+    this.pruneDepth = depth;
+    if (prefixGlobs.isEmpty()) {
+      this.pruneFilter = null;
+    } else {
+      this.pruneFilter = GlobFilter.of(prefixGlobs, null);
+    }
+  }
+
+  /**
+   * Lists the objects below the prefix.
+   *
+   * @param parallelism The number of prefixes listed at the same time.
+   * @return The objects, in no particular order.
+   * @throws IOException If a request fails, or if a listing of a common
+   *     prefix is interrupted.
+   * @throws InterruptedException If interrupted while waiting for S3.
+   */
+  List<S3Client.S3Object> walk(final int parallelism)
+      throws IOException, InterruptedException {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      return pool.invoke(new PrefixTask(this, prefix, 0, true));
+    } catch (UncheckedIOException e) {
+      if (e.getCause() instanceof InterruptedIOException
+          && Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException(e.getCause().getMessage());
+      }
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Lists the objects of a prefix, page after page.
+   *
+   * @param keyPrefix The prefix.
+   * @param delimiter The delimiter, or {@code null} to list every object
+   *     below the prefix.
+   * @param commonPrefixes Receives the common prefixes, with a delimiter.
+   * @return The objects.
+   */
+  private List<S3Client.S3Object> list(
+      final String keyPrefix,
+      final String delimiter,
+      final List<String> commonPrefixes) {
+    List<S3Client.S3Object> objects = new ArrayList<>();
+    String token = null;
+    try {
+      do {
+        S3Client.Page page =
+            client.listObjects(bucket, keyPrefix, delimiter, token);
+        objects.addAll(page.getObjects());
+        commonPrefixes.addAll(page.getCommonPrefixes());
+        token = page.getNextToken();
+      } while (token != null);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new InterruptedIOException(
+          "Interrupted while listing s3://" + bucket + "/" + keyPrefix));
+    }
+    return objects;
+  }
+
+  /**
+   * Tells whether the content of a common prefix is ignored.
+   *
+   * @param commonPrefix The common prefix, ending with {@code /}.
+   * @return {@code true} if no object below it can be selected.
+   */
+  private boolean isPruned(final String commonPrefix) {
+    if (pruneFilter == null) {
+      return false;
+    }
+    String relative = commonPrefix.substring(
+        prefix.length(), commonPrefix.length() - DELIMITER.length());
+    // Keys with empty levels are normalized before they are matched
+    if (relative.isEmpty() || relative.startsWith(DELIMITER)
+        || relative.endsWith(DELIMITER)
+        || relative.contains(DELIMITER + DELIMITER)) {
+      return false;
+    }
+    return pruneFilter.matches(relative);
+  }
+
+  /**
+   * Returns the directory marker of a skipped common prefix.
+   *
+   * @param commonPrefix The common prefix.
+   * @return The object whose key is the common prefix, or {@code null}.
+   */
+  private S3Client.S3Object marker(final String commonPrefix) {
+    try {
+      return client.describeObject(bucket, commonPrefix);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new InterruptedIOException(
+          "Interrupted while listing s3://" + bucket + "/" + commonPrefix));
+    }
+  }
+
+  /**
+   * Lists a prefix, level by level or in full, forking a task for each
+   * common prefix listed.
+   */
+  private static final class PrefixTask
+      extends RecursiveTask<List<S3Client.S3Object>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The walker listing the prefix. */
+    private final transient S3Walker walker;
+
+    /** The prefix to list. */
+    private final String keyPrefix;
+
+    /** The number of levels of the prefix below the root prefix. */
+    private final int depth;
+
+    /** Whether the prefix is listed level by level. */
+    private final boolean byLevel;
+
+    /**
+     * Creates the task of a prefix.
+     *
+     * @param s3Walker The walker listing the prefix.
+     * @param listedPrefix The prefix to list.
+     * @param level The number of levels of the prefix below the root.
+     * @param withDelimiter Whether the prefix is listed level by level.
+     */
+    private PrefixTask(
+        final S3Walker s3Walker,
+        final String listedPrefix,
+        final int level,
+        final boolean withDelimiter) {
+      this.walker = s3Walker;
+      this.keyPrefix = listedPrefix;
+      this.depth = level;
+      this.byLevel = withDelimiter;
+    }
+
+    /**
+     * Lists the prefix.
+     *
+     * @return The objects below it.
+     */
+    @Override
+    protected List<S3Client.S3Object> compute() {
+      if (!byLevel) {
+        return walker.list(keyPrefix, null, new ArrayList<>());
+      }
+      List<String> commonPrefixes = new ArrayList<>();
+      List<S3Client.S3Object> objects =
+          walker.list(keyPrefix, DELIMITER, commonPrefixes);
+      List<PrefixTask> subtasks = new ArrayList<>();
+      for (String commonPrefix : commonPrefixes) {
+        if (!walker.isPruned(commonPrefix)) {
+          PrefixTask subtask = new PrefixTask(
+              walker, commonPrefix, depth + 1,
+              depth + 1 < walker.pruneDepth);
+          subtask.fork();
+          subtasks.add(subtask);
+        } else if (walker.markers) {
+          S3Client.S3Object marker = walker.marker(commonPrefix);
+          if (marker != null) {
+            objects.add(marker);
+          }
+        }
+      }
+      for (PrefixTask subtask : subtasks) {
+        objects.addAll(subtask.join());
+      }
+      return objects;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package nfcore.nftest.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * Final ordering stage of {@link NextflowOutputFilter}, passing the filtered
+ * lines on in the order in which they are returned.
+ *
+ * <p>When sorting, lines that should preserve their order are passed on as
+ * they arrive, while the sortable lines are held back in an
+ * {@link ExternalLineSorter} and passed on, sorted, once the output is
+ * finished. Consecutive duplicates are removed across both blocks. When not
+ * sorting, every line is passed on as it arrives.
+ */
+final class SortedOutput implements Consumer<String> {
+
+  /** The consumer receiving the ordered lines. */
+  private final Consumer<String> downstream;
+
+  /** The sorter of the sortable lines, or {@code null} if not sorting. */
+  private final ExternalLineSorter sorter;
+
+  /** The last line passed on when sorting, to remove duplicates. */
+  private String lastLine;
+
+  /**
+   * Creates the ordering stage of a single output.
+   *
+   * @param consumer The consumer receiving the ordered lines.
+   * @param sorted Whether sortable lines are sorted and duplicates removed.
+   * @param memoryLimit Estimated memory, in bytes, the sortable lines may use
+   *     before they are spilled to disk.
+   */
+  SortedOutput(
+      final Consumer<String> consumer,
+      final boolean sorted,
+      final long memoryLimit) {
+    this.downstream = consumer;
+    if (sorted) {
+      this.sorter = new ExternalLineSorter(memoryLimit);
+    } else {
+      this.sorter = null;
+    }
+  }
+
+  /**
+   * Receives a filtered line.
+   *
+   * @param line The filtered line.
+   */
+  @Override
+  public void accept(final String line) {
+    if (sorter == null) {
+      downstream.accept(line);
+    } else if (NextflowOutputFilter.isSortable(line)) {
+      sorter.add(line);
+    } else {
+      passOn(line);
+    }
+  }
+
+  /**
+   * Passes on the sorted lines, once all the lines have been received.
+   */
+  void finish() {
+    if (sorter != null) {
+      sorter.forEachSorted(this::passOn);
+    }
+  }
+
+  /**
+   * Discards the lines held back, for instance when filtering failed.
+   */
+  void discard() {
+    if (sorter != null) {
+      sorter.close();
+    }
+  }
+
+  /**
+   * Passes a line on unless it repeats the previous one.
+   *
+   * @param line The line.
+   */
+  private void passOn(final String line) {
+    if (!line.equals(lastLine)) {
+      downstream.accept(line);
+      lastLine = line;
+    }
+  }
+}
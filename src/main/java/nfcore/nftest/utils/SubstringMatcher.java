@@ -0,0 +1,288 @@
+package nfcore.nftest.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton deciding in a single pass over a line whether it
+ * contains any of the {@code ignore} strings and any of the {@code include}
+ * strings of {@link NextflowOutputFilter}.
+ *
+ * <p>The automaton is compiled into a full transition table over the
+ * characters used by the strings, so scanning a line costs one table lookup
+ * per character whatever the number of strings. It can also be compiled over
+ * the UTF-8 encoding of the strings, to select lines from raw bytes before
+ * decoding them: a string is contained in a line exactly when its UTF-8
+ * bytes are contained in the line's UTF-8 bytes.
+ */
+final class SubstringMatcher {
+
+  /** Flag set when the line contains one of the ignore strings. */
+  static final int IGNORE = 1;
+
+  /** Flag set when the line contains one of the include strings. */
+  static final int INCLUDE = 2;
+
+  /** Characters below this value are classified with an array lookup. */
+  private static final int LOW_CHARS = 128;
+
+  /** Number of distinct byte values. */
+  private static final int BYTE_SYMBOLS = 256;
+
+  /** Mask converting a signed byte to its unsigned value. */
+  private static final int BYTE_MASK = 0xff;
+
+  /** Class of each symbol below {@code lowClasses.length}, 0 if unused. */
+  private final int[] lowClasses;
+
+  /** Class of other symbols used by the strings. */
+  private final Map<Integer, Integer> highClasses = new HashMap<>();
+
+  /** Transition table, indexed by state then character class. */
+  private final int[][] transitions;
+
+  /** Flags of the strings ending at each state. */
+  private final int[] outputs;
+
+  /** Flags of the empty strings, which every line contains. */
+  private final int emptyFlags;
+
+  /** Whether include strings were given. */
+  private final boolean hasInclude;
+
+  /** Whether ignore strings were given. */
+  private final boolean hasIgnore;
+
+  /**
+   * Compiles the ignore and include strings to match characters.
+   *
+   * @param ignore Lines containing any of these strings are ignored.
+   * @param include If not empty, only lines containing at least one of these
+   *     strings are included.
+   */
+  SubstringMatcher(final List<String> ignore, final List<String> include) {
+    this(toChars(ignore), toChars(include), LOW_CHARS);
+  }
+
+  /**
+   * Compiles the ignore and include strings to match UTF-8 bytes.
+   *
+   * @param ignore Lines containing any of these strings are ignored.
+   * @param include If not empty, only lines containing at least one of these
+   *     strings are included.
+   * @return The matcher, to be used with
+   *     {@link #isSelected(ByteBuffer, int, int)}.
+   */
+  static SubstringMatcher forBytes(
+      final List<String> ignore,
+      final List<String> include) {
+    return new SubstringMatcher(
+      toBytes(ignore), toBytes(include), BYTE_SYMBOLS);
+  }
+
+  /**
+   * Converts strings to sequences of character symbols.
+   *
+   * @param strings The strings.
+   * @return The symbols of each string.
+   */
+  private static List<int[]> toChars(final List<String> strings) {
+    List<int[]> symbols = new ArrayList<>();
+    for (String string : strings) {
+      symbols.add(string.chars().toArray());
+    }
+    return symbols;
+  }
+
+  /**
+   * Converts strings to sequences of UTF-8 byte symbols.
+   *
+   * @param strings The strings.
+   * @return The symbols of each string.
+   */
+  private static List<int[]> toBytes(final List<String> strings) {
+    List<int[]> symbols = new ArrayList<>();
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      int[] unsigned = new int[bytes.length];
+      for (int i = 0; i < bytes.length; i++) {
+        unsigned[i] = bytes[i] & BYTE_MASK;
+      }
+      symbols.add(unsigned);
+    }
+    return symbols;
+  }
+
+  /**
+   * Compiles the ignore and include symbol sequences.
+   *
+   * @param ignore Lines containing any of these sequences are ignored.
+   * @param include If not empty, only lines containing at least one of these
+   *     sequences are included.
+   * @param lowSymbols Symbols below this value are classified with an array
+   *     lookup.
+   */
+  private SubstringMatcher(
+      final List<int[]> ignore,
+      final List<int[]> include,
+      final int lowSymbols) {
+    this.lowClasses = new int[lowSymbols];
+    this.hasIgnore = !ignore.isEmpty();
+    this.hasInclude = !include.isEmpty();
+
+    // Build the trie, assigning a class to each symbol used
+    List<Map<Integer, Integer>> trie = new ArrayList<>();
+    List<Integer> flags = new ArrayList<>();
+    trie.add(new HashMap<>());
+    flags.add(0);
+    int empty = 0;
+    int classes = 1;
+    for (int pass = 0; pass < 2; pass++) {
+      List<int[]> strings;
+      int flag;
+      if (pass == 0) {
+        strings = ignore;
+        flag = IGNORE;
+      } else {
+        strings = include;
+        flag = INCLUDE;
+      }
+      for (int[] string : strings) {
+        if (string.length == 0) {
+          empty |= flag;
+          continue;
+        }
+        int state = 0;
+        for (int c : string) {
+          int symbol = classOf(c);
+          if (symbol == 0) {
+            symbol = classes++;
+            if (c < lowSymbols) {
+              lowClasses[c] = symbol;
+            } else {
+              highClasses.put(c, symbol);
+            }
+          }
+          Integer next = trie.get(state).get(symbol);
+          if (next == null) {
+            next = trie.size();
+            trie.add(new HashMap<>());
+            flags.add(0);
+            trie.get(state).put(symbol, next);
+          }
+          state = next;
+        }
+        flags.set(state, flags.get(state) | flag);
+      }
+    }
+    this.emptyFlags = empty;
+
+    // Breadth-first construction of the failure links and of the full
+    // transition table
+    int states = trie.size();
+    this.transitions = new int[states][classes];
+    this.outputs = new int[states];
+    int[] failure = new int[states];
+    Deque<Integer> queue = new ArrayDeque<>();
+    outputs[0] = flags.get(0);
+    for (Map.Entry<Integer, Integer> edge : trie.get(0).entrySet()) {
+      transitions[0][edge.getKey()] = edge.getValue();
+      queue.add(edge.getValue());
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      outputs[state] = flags.get(state) | outputs[failure[state]];
+      for (int symbol = 0; symbol < classes; symbol++) {
+        Integer next = trie.get(state).get(symbol);
+        if (next == null) {
+          transitions[state][symbol] = transitions[failure[state]][symbol];
+        } else {
+          transitions[state][symbol] = next;
+          failure[next] = transitions[failure[state]][symbol];
+          queue.add(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the class of a symbol.
+   *
+   * @param c The symbol, a character or an unsigned byte.
+   * @return Its class, or {@code 0} if no string uses it.
+   */
+  private int classOf(final int c) {
+    if (c < lowClasses.length) {
+      return lowClasses[c];
+    }
+    Integer symbol = highClasses.get(c);
+    if (symbol == null) {
+      return 0;
+    }
+    return symbol;
+  }
+
+  /**
+   * Decides whether a line is kept: it must not contain any ignore string
+   * and, if include strings were given, it must contain one of them. The
+   * scan stops as soon as the decision is known.
+   *
+   * @param line The raw output line.
+   * @return {@code true} if the line is kept.
+   */
+  boolean isSelected(final CharSequence line) {
+    int found = emptyFlags;
+    if (!stopScan(found)) {
+      int state = 0;
+      for (int i = 0; i < line.length(); i++) {
+        state = transitions[state][classOf(line.charAt(i))];
+        found |= outputs[state];
+        if (outputs[state] != 0 && stopScan(found)) {
+          break;
+        }
+      }
+    }
+    return (found & IGNORE) == 0 && (!hasInclude || (found & INCLUDE) != 0);
+  }
+
+  /**
+   * Decides whether a line of UTF-8 bytes is kept, like
+   * {@link #isSelected(CharSequence)}. The matcher must have been created
+   * with {@link #forBytes(List, List)}.
+   *
+   * @param buffer The buffer holding the line.
+   * @param from Index of the first byte of the line.
+   * @param to Index after the last byte of the line.
+   * @return {@code true} if the line is kept.
+   */
+  boolean isSelected(final ByteBuffer buffer, final int from, final int to) {
+    int found = emptyFlags;
+    if (!stopScan(found)) {
+      int state = 0;
+      for (int i = from; i < to; i++) {
+        state = transitions[state][classOf(buffer.get(i) & BYTE_MASK)];
+        found |= outputs[state];
+        if (outputs[state] != 0 && stopScan(found)) {
+          break;
+        }
+      }
+    }
+    return (found & IGNORE) == 0 && (!hasInclude || (found & INCLUDE) != 0);
+  }
+
+  /**
+   * Checks whether the flags found so far decide the selection.
+   *
+   * @param found The flags found so far.
+   * @return {@code true} if scanning further cannot change the decision.
+   */
+  private boolean stopScan(final int found) {
+    return (found & IGNORE) != 0 || (!hasIgnore && (found & INCLUDE) != 0);
+  }
+}
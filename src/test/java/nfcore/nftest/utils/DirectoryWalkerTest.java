@@ -0,0 +1,393 @@
+package nfcore.nftest.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryWalkerTest {
+
+  private static void createTree(final Path root) throws IOException {
+    for (String dir : List.of(
+        "output/fastqc/sample_1", "output/fastqc/sample_2",
+        "output/multiqc/multiqc_data", "output/pipeline_info",
+        "output/work/ab/cdef01")) {
+      Files.createDirectories(root.resolve(dir));
+    }
+    for (String file : List.of(
+        "output/fastqc/sample_1/report.html",
+        "output/fastqc/sample_2/report.html",
+        "output/fastqc/sample_2/report.zip",
+        "output/multiqc/multiqc_report.html",
+        "output/multiqc/multiqc_data/multiqc.log",
+        "output/pipeline_info/execution_trace.txt",
+        "output/work/ab/cdef01/.command.sh",
+        "output/top.txt")) {
+      Files.write(root.resolve(file), file.getBytes());
+    }
+    Files.createSymbolicLink(
+        root.resolve("output/fastqc/link"),
+        root.resolve("output/multiqc"));
+  }
+
+  @Test
+  void shouldListInParallelLikeSequentially(@TempDir final Path tempDir)
+      throws IOException {
+    createTree(tempDir);
+    String outdir = tempDir.resolve("output").toString();
+
+    for (boolean includeDir : List.of(false, true)) {
+      LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+      options.put("includeDir", includeDir);
+      options.put("ignore", List.of("work/**", "**/*.zip"));
+      List<?> expected = Methods.getAllFilesFromDir(options, outdir);
+
+      options.put("parallelism", 3);
+      assertEquals(expected, Methods.getAllFilesFromDir(options, outdir));
+      options.remove("parallelism");
+      options.put("parallel", true);
+      assertEquals(expected, Methods.getAllFilesFromDir(options, outdir));
+    }
+  }
+
+  @Test
+  void shouldReportLinksAsFiles(@TempDir final Path tempDir)
+      throws IOException {
+    createTree(tempDir);
+    List<File> files = Methods.getAllFilesFromDir(
+        tempDir.resolve("output").toString(), false, null, null,
+        List.of("**"), 4);
+
+    assertTrue(files.contains(
+        tempDir.resolve("output/fastqc/link").toFile()));
+    assertEquals(9, files.size());
+  }
+
+  @Test
+  void shouldNotWalkExcludedSubtrees(@TempDir final Path tempDir)
+      throws Exception {
+    createTree(tempDir);
+    Path root = tempDir.resolve("output");
+    Predicate<Path> prune = DirectoryWalker.excludedSubtrees(
+        root, Arrays.asList("work/**", "**/multiqc_data/**", null, "**"));
+
+    assertTrue(prune.test(root.resolve("work")));
+    assertTrue(prune.test(root.resolve("multiqc/multiqc_data")));
+    assertFalse(prune.test(root.resolve("multiqc")));
+    assertFalse(prune.test(root));
+
+    for (int parallelism : List.of(1, 4)) {
+      List<Path> offered = Collections.synchronizedList(new ArrayList<>());
+      List<Path> walked = new DirectoryWalker(
+          root,
+          file -> offered.add(file),
+          dir -> offered.add(dir),
+          prune).walk(parallelism);
+
+      assertEquals(offered.size(), walked.size());
+      assertTrue(walked.contains(root.resolve("work")));
+      assertTrue(walked.contains(root.resolve("multiqc/multiqc_data")));
+      assertFalse(walked.contains(root.resolve("work/ab")));
+      assertFalse(walked.contains(
+          root.resolve("multiqc/multiqc_data/multiqc.log")));
+    }
+
+    // A subtree glob matching the root itself does not prune it
+    assertTrue(DirectoryWalker.excludedSubtrees(root, List.of("**/**"))
+        .test(root));
+    assertEquals(
+      List.of("top.txt"),
+      Methods.getAllFilesFromPath(
+        new LinkedHashMap<>(Map.of("ignore", List.of("**/**"))),
+        root.toString())
+    );
+  }
+
+  @Test
+  void shouldStreamInSortedOrder(@TempDir final Path tempDir)
+      throws Exception {
+    createTree(tempDir);
+    // Names sorting before and after "multiqc/" as strings
+    Files.createDirectories(tempDir.resolve("output/multiqc-old/a"));
+    Files.write(tempDir.resolve("output/multiqc.log"), new byte[0]);
+    Files.write(tempDir.resolve("output/multiqc0"), new byte[0]);
+    String outdir = tempDir.resolve("output").toString();
+
+    for (boolean relative : List.of(false, true)) {
+      LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+      options.put("includeDir", true);
+      options.put("relative", relative);
+      options.put("ignore", List.of("work/**"));
+      List<?> expected = Methods.getAllFilesFromDir(options, outdir);
+      try (Stream<?> files = Methods.streamAllFilesFromDir(options, outdir)) {
+        assertEquals(expected, files.collect(Collectors.toList()));
+      }
+      options.put("compact", true);
+      assertEquals(
+        relative,
+        Methods.getAllFilesFromDir(options, outdir)
+          instanceof FrontCodedList);
+      assertEquals(expected, Methods.getAllFilesFromDir(options, outdir));
+    }
+
+    try (Stream<String> files = Methods.streamAllFilesFromPath(
+        new LinkedHashMap<>(Map.of("includeDir", true)), outdir)) {
+      assertEquals(
+        List.of("fastqc", "fastqc/link", "fastqc/sample_1"),
+        files.limit(3).collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  void shouldReuseListingIndexUntilChanged(@TempDir final Path tempDir)
+      throws Exception {
+    createTree(tempDir);
+    Path root = tempDir.resolve("output");
+    Path indexDir = tempDir.resolve("index");
+    // Directories modified just before indexing are not trusted
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+        }
+      }
+    }
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("includeDir", true);
+    options.put("ignore", List.of("work/**"));
+    List<String> expected =
+        Methods.getAllFilesFromPath(new LinkedHashMap<>(options),
+          root.toString());
+
+    options.put("listingIndex", indexDir.toString());
+    assertEquals(expected, Methods.getAllFilesFromPath(options,
+        root.toString()));
+    try (Stream<Path> indexes = Files.list(indexDir)) {
+      assertEquals(1, indexes.count());
+    }
+    assertEquals(expected, Methods.getAllFilesFromPath(options,
+        root.toString()));
+
+    Files.write(root.resolve("multiqc/multiqc_data/new.txt"), new byte[0]);
+    List<String> changed = Methods.getAllFilesFromPath(options,
+        root.toString());
+    assertTrue(changed.contains("multiqc/multiqc_data/new.txt"));
+    assertEquals(expected.size() + 1, changed.size());
+
+    // Indexes larger than the limit are not kept
+    Files.setLastModifiedTime(
+        root.resolve("multiqc/multiqc_data"), FileTime.fromMillis(1000));
+    options.put("listingIndex", tempDir.resolve("small").toString());
+    options.put("listingIndexMaxSize", 1);
+    assertEquals(changed, Methods.getAllFilesFromPath(options,
+        root.toString()));
+    try (Stream<Path> indexes = Files.list(tempDir.resolve("small"))) {
+      assertEquals(0, indexes.count());
+    }
+  }
+
+  @Test
+  void shouldDigestFilesInParallelLikeSequentially(
+      @TempDir final Path tempDir) throws Exception {
+    createTree(tempDir);
+    Path output = tempDir.resolve("output");
+    byte[] large = new byte[3_000_000];
+    new Random(42).nextBytes(large);
+    Files.write(output.resolve("large.bin"), large);
+    String outdir = output.toString();
+
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("includeDir", true);
+    options.put("ignore", List.of("work/**"));
+    options.put("digest", true);
+    options.put("parallelism", 1);
+    List<Map<String, Object>> sequential =
+        Methods.getAllFilesFromDir(options, outdir);
+    options.put("parallelism", 4);
+    List<Map<String, Object>> parallel =
+        Methods.getAllFilesFromDir(options, outdir);
+    assertEquals(sequential, parallel);
+
+    options.remove("digest");
+    options.put("relative", true);
+    List<String> relative = Methods.getAllFilesFromDir(options, outdir);
+    assertEquals(
+        relative,
+        parallel.stream()
+          .map(entry -> entry.get("path"))
+          .collect(Collectors.toList()));
+
+    MessageDigest md5 = MessageDigest.getInstance("MD5");
+    for (Map<String, Object> entry : parallel) {
+      Path path = output.resolve((String) entry.get("path"));
+      if (Files.isDirectory(path)) {
+        assertEquals(Set.of("path"), entry.keySet());
+        continue;
+      }
+      byte[] content = Files.readAllBytes(path);
+      assertEquals((long) content.length, entry.get("size"));
+      assertEquals(
+          String.format("%032x", new BigInteger(1, md5.digest(content))),
+          entry.get("md5"));
+    }
+    assertTrue(relative.contains("large.bin"));
+    assertTrue(relative.contains("fastqc/link"));
+  }
+
+  @Test
+  void shouldDigestChangedDirectoriesOnly(@TempDir final Path tempDir)
+      throws IOException {
+    createTree(tempDir);
+    Path output = tempDir.resolve("output");
+    String outdir = output.toString();
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("ignore", List.of("work/**"));
+    options.put("depth", 2);
+
+    Map<String, String> before = Methods.getDirectoryDigests(options, outdir);
+    assertEquals(
+        List.of(".", "fastqc", "fastqc/sample_1", "fastqc/sample_2",
+          "multiqc", "multiqc/multiqc_data", "pipeline_info"),
+        new ArrayList<>(before.keySet()));
+    assertEquals(
+        before.get("."), Methods.getDirectoryDigest(options, outdir));
+    options.put("parallelism", 1);
+    assertEquals(before, Methods.getDirectoryDigests(options, outdir));
+
+    // Ignored files do not change the digests
+    Files.write(output.resolve("work/ab/cdef01/.exitcode"), new byte[1]);
+    assertEquals(before, Methods.getDirectoryDigests(options, outdir));
+
+    Files.write(
+        output.resolve("fastqc/sample_2/report.html"), "changed".getBytes());
+    Map<String, String> after = Methods.getDirectoryDigests(options, outdir);
+    for (String directory : before.keySet()) {
+      assertEquals(
+          List.of(".", "fastqc", "fastqc/sample_2").contains(directory),
+          !before.get(directory).equals(after.get(directory)),
+          directory);
+    }
+
+    // Moving a file changes the digest even with the same content
+    Files.move(
+        output.resolve("top.txt"), output.resolve("pipeline_info/top.txt"));
+    options.put("depth", 0);
+    assertEquals(
+        Map.of(".", Methods.getDirectoryDigest(options, outdir)),
+        Methods.getDirectoryDigests(options, outdir));
+    assertFalse(after.get(".").equals(
+        Methods.getDirectoryDigest(options, outdir)));
+  }
+
+  @Test
+  void shouldFollowLinksWithoutLooping(@TempDir final Path tempDir)
+      throws Exception {
+    createTree(tempDir);
+    Path output = tempDir.resolve("output");
+    String outdir = output.toString();
+    // Published like publishDir mode: 'symlink', plus a link to the root
+    Files.createSymbolicLink(
+        output.resolve("pipeline_info/command.sh"),
+        output.resolve("work/ab/cdef01/.command.sh"));
+    Files.createSymbolicLink(
+        output.resolve("multiqc/multiqc_data/up"), output);
+    Files.createSymbolicLink(
+        output.resolve("broken"), output.resolve("missing"));
+
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("includeDir", true);
+    options.put("relative", true);
+    options.put("followLinks", true);
+    List<String> expected = Methods.getAllFilesFromDir(options, outdir);
+    assertTrue(expected.containsAll(List.of(
+        "broken",
+        "fastqc/link",
+        "fastqc/link/multiqc_data",
+        "fastqc/link/multiqc_data/multiqc.log",
+        "fastqc/link/multiqc_data/up",
+        "multiqc/multiqc_data/up",
+        "pipeline_info/command.sh")));
+    assertFalse(expected.contains("multiqc/multiqc_data/up/top.txt"));
+
+    options.put("parallelism", 4);
+    assertEquals(expected, Methods.getAllFilesFromDir(options, outdir));
+    options.remove("parallelism");
+    try (Stream<String> files =
+        Methods.streamAllFilesFromDir(options, outdir)) {
+      assertEquals(expected, files.collect(Collectors.toList()));
+    }
+    options.put("listingIndex", tempDir.resolve("index").toString());
+    assertEquals(
+        expected.stream()
+          .filter(file -> !file.isEmpty() && !file.equals("output"))
+          .collect(Collectors.toList()),
+        Methods.getAllFilesFromPath(options, outdir));
+
+    // Files reached through several links have the same digest
+    options.remove("listingIndex");
+    options.put("digest", true);
+    List<Map<String, Object>> described =
+        Methods.getAllFilesFromDir(options, outdir);
+    Map<String, Object> md5s = new LinkedHashMap<>();
+    for (Map<String, Object> entry : described) {
+      md5s.put((String) entry.get("path"), entry.get("md5"));
+    }
+    assertTrue(described.contains(Map.of("path", "broken", "broken", true)));
+    assertEquals(
+        md5s.get("work/ab/cdef01/.command.sh"),
+        md5s.get("pipeline_info/command.sh"));
+    assertEquals(
+        md5s.get("multiqc/multiqc_data/multiqc.log"),
+        md5s.get("fastqc/link/multiqc_data/multiqc.log"));
+  }
+
+  @Test
+  void shouldDigestBrokenLinks(@TempDir final Path tempDir)
+      throws IOException {
+    createTree(tempDir);
+    Path output = tempDir.resolve("output");
+    String outdir = output.toString();
+    LinkedHashMap<String, Object> options = new LinkedHashMap<>();
+    options.put("ignore", List.of("work/**"));
+    LinkedHashMap<String, Object> following = new LinkedHashMap<>(options);
+    following.put("followLinks", true);
+    String before = Methods.getDirectoryDigest(options, outdir);
+    String beforeFollowing = Methods.getDirectoryDigest(following, outdir);
+
+    // Published like publishDir mode: 'symlink' into a cleaned work/
+    Path link = output.resolve("pipeline_info/command.sh");
+    Files.createSymbolicLink(link, output.resolve("work/missing"));
+    assertFalse(before.equals(Methods.getDirectoryDigest(options, outdir)));
+    assertFalse(beforeFollowing.equals(
+        Methods.getDirectoryDigest(following, outdir)));
+    Map<String, String> broken =
+        Methods.getDirectoryDigests(following, outdir);
+
+    // A broken link differs from a link to an empty file
+    Files.createFile(output.resolve("work/missing"));
+    assertFalse(
+        broken.equals(Methods.getDirectoryDigests(following, outdir)));
+  }
+}
@@ -0,0 +1,124 @@
+package nfcore.nftest.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadCacheTest {
+
+  @Test
+  void shouldReuseValidDownloads(@TempDir final Path cache) throws Exception {
+    String[] etag = {"0123"};
+    AtomicInteger copies = new AtomicInteger();
+    DownloadCache.Metadata metadata = uri -> {
+      String key = uri.substring("s3://bucket/".length());
+      return new S3Client.S3Object(key, key.length(), etag[0]);
+    };
+    DownloadCache.Transfer transfer = (uri, target) -> {
+      copies.incrementAndGet();
+      Files.writeString(
+          target, "x".repeat(uri.length() - "s3://bucket/".length()));
+    };
+    DownloadCache downloads = new DownloadCache(cache, 25, true);
+
+    Path a = downloads.fetch("s3://bucket/data/a.txt", metadata, transfer);
+    assertEquals(cache.resolve("bucket/data/a.txt"), a);
+    assertEquals("xxxxxxxxxx", Files.readString(a));
+    assertEquals(a, downloads.fetch("s3://bucket/data/a.txt", metadata,
+        transfer));
+    assertEquals(1, copies.get());
+
+    // Changed locally or remotely
+    Files.writeString(a, "changed");
+    downloads.fetch("s3://bucket/data/a.txt", metadata, transfer);
+    assertEquals("xxxxxxxxxx", Files.readString(a));
+    etag[0] = "4567";
+    downloads.fetch("s3://bucket/data/a.txt", metadata, transfer);
+    assertEquals(3, copies.get());
+    assertEquals(a, new DownloadCache(cache, 25, false)
+        .fetch("s3://bucket/data/a.txt", metadata, transfer));
+    assertEquals(4, copies.get());
+
+    // The least recently used file is evicted
+    Path b = downloads.fetch("s3://bucket/data/b.txt", metadata, transfer);
+    Thread.sleep(20);
+    downloads.fetch("s3://bucket/data/a.txt", metadata, transfer);
+    Thread.sleep(20);
+    Path c = downloads.fetch("s3://bucket/data/c.txt", metadata, transfer);
+    assertEquals(6, copies.get());
+    assertTrue(Files.exists(a));
+    assertFalse(Files.exists(b));
+    assertTrue(Files.exists(c));
+
+    // Incomplete downloads are not kept
+    IOException error = assertThrows(IOException.class,
+        () -> downloads.fetch("s3://bucket/data/d.txt",
+          uri -> new S3Client.S3Object("data/d.txt", 99, "0123"),
+          transfer));
+    assertTrue(error.getMessage().contains("10 bytes instead of 99"));
+    try (Stream<Path> files = Files.list(cache.resolve("bucket/data"))) {
+      assertEquals(
+          List.of("a.txt", "c.txt"),
+          files.map(file -> file.getFileName().toString()).sorted()
+            .collect(Collectors.toList()));
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> downloads.fetch("s3://../../x", metadata, transfer));
+  }
+
+  @Test
+  void shouldDownloadManyFilesAtOnce(@TempDir final Path cache)
+      throws Exception {
+    AtomicInteger copies = new AtomicInteger();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    DownloadCache.Transfer transfer = (uri, target) -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+        if (uri.contains("missing")) {
+          throw new IOException("No such file: " + uri);
+        }
+        copies.incrementAndGet();
+        Files.writeString(target, uri);
+      } finally {
+        running.decrementAndGet();
+      }
+    };
+    DownloadCache downloads =
+        new DownloadCache(cache, DownloadCache.DEFAULT_MAX_SIZE, true);
+
+    IOException error = assertThrows(IOException.class,
+        () -> downloads.fetchAll(
+          List.of("s3://bucket/a", "s3://bucket/missing1", "s3://bucket/b",
+            "s3://bucket/a", "s3://bucket/missing2", "s3://bucket/c"),
+          2, uri -> null, transfer));
+    assertTrue(error.getMessage().startsWith(
+        "Failed to download 2 of 5 files:"), error.getMessage());
+    assertTrue(error.getMessage().contains("s3://bucket/missing2: No such"));
+    assertEquals(2, error.getSuppressed().length);
+    assertEquals(3, copies.get());
+    assertEquals(2, maxRunning.get());
+
+    // Files downloaded despite the failures are reused
+    assertEquals(
+        List.of(cache.resolve("bucket/c"), cache.resolve("bucket/a"),
+          cache.resolve("bucket/c")),
+        downloads.fetchAll(
+          List.of("s3://bucket/c", "s3://bucket/a", "s3://bucket/c"),
+          4, uri -> null, transfer));
+    assertEquals(3, copies.get());
+  }
+}
@@ -0,0 +1,72 @@
+package nfcore.nftest.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FrontCodedListTest {
+
+  @Test
+  void shouldReturnTheStringsAdded() {
+    Random random = new Random(42);
+    List<String> strings = new ArrayList<>(List.of("", "", "a", "é/日本/😀"));
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder string = new StringBuilder();
+      for (int j = random.nextInt(20); j > 0; j--) {
+        string.append((char) (random.nextBoolean()
+            ? 'a' + random.nextInt(3)
+            : random.nextInt(Character.MAX_VALUE + 1)));
+      }
+      strings.add(string.toString());
+    }
+
+    for (boolean sorted : List.of(false, true)) {
+      if (sorted) {
+        Collections.sort(strings);
+      }
+      FrontCodedList list = FrontCodedList.of(strings);
+      assertEquals(strings, list);
+      assertEquals(strings, new ArrayList<>(list));
+      for (int i = strings.size() - 1; i >= 0; i--) {
+        assertEquals(strings.get(i), list.get(i));
+      }
+    }
+    assertEquals(List.of(), FrontCodedList.of(List.of()));
+    assertThrows(
+        IndexOutOfBoundsException.class,
+        () -> FrontCodedList.of(List.of("a")).get(1));
+    assertThrows(
+        UnsupportedOperationException.class,
+        () -> FrontCodedList.of(List.of("a")).add("b"));
+  }
+
+  @Test
+  void shouldBeMuchSmallerThanStrings() {
+    List<String> paths = new ArrayList<>();
+    for (int sample = 0; sample < 200; sample++) {
+      for (int file = 0; file < 50; file++) {
+        paths.add(String.format(
+            "results/variant_calling/sample_%04d/annotation/"
+            + "vep/chunk_%03d.ann.vcf.gz", sample, file));
+      }
+    }
+    long stringBytes = 0;
+    for (String path : paths) {
+      // String and array headers, and one byte per Latin-1 character
+      stringBytes += 40 + path.length();
+    }
+
+    FrontCodedList list = FrontCodedList.of(paths);
+    assertEquals(paths, list);
+    assertTrue(
+        list.encodedSize() * 5 < stringBytes,
+        list.encodedSize() + " bytes instead of " + stringBytes);
+  }
+}
@@ -0,0 +1,103 @@
+package nfcore.nftest.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GlobFilterTest {
+
+  @Test
+  void shouldMatchLikePathMatchers() {
+    List<String> include = List.of("**", "*", "a?c/[!x-z]*.{txt,log}");
+    List<String> ignore = List.of(
+        "work/**", "**/*.zip", "pipeline_info/execution_*.{html,txt}",
+        "[ab]\\*", "{x,y}/**");
+    List<String> paths = List.of(
+        "", "top.txt", "work", "work/ab/cd", "fastqc/report.zip",
+        "pipeline_info/execution_trace.txt", "pipeline_info/params.json",
+        "a*", "b*", "c*", "x/1", "y", "abc/d.txt", "line\nbreak");
+
+    GlobFilter filter = GlobFilter.of(include, ignore);
+    for (String path : paths) {
+      Path relative = Paths.get(path);
+      boolean expected = matchesAny(include, relative)
+          && !matchesAny(ignore, relative);
+      assertEquals(expected, filter.matches(path), path);
+    }
+  }
+
+  @Test
+  void shouldHandleMissingAndEmptyIncludes() {
+    assertFalse(GlobFilter.of(List.of(), List.of()).matches("a"));
+    assertTrue(GlobFilter.of(null, List.of()).matches("a\nb"));
+    assertFalse(GlobFilter.of(null, List.of("a*")).matches("ab"));
+  }
+
+  @Test
+  void shouldReuseCompiledFilters() {
+    List<String> ignore = new ArrayList<>(List.of("work/**", "*.log"));
+    GlobFilter filter = GlobFilter.of(null, ignore);
+
+    assertSame(filter, GlobFilter.of(null, List.of("work/**", "*.log")));
+    ignore.add("*.txt");
+    assertNotSame(filter, GlobFilter.of(null, ignore));
+    assertNotSame(filter, GlobFilter.of(List.of(), ignore.subList(0, 2)));
+    assertTrue(GlobFilter.cacheSize() <= GlobFilter.MAX_CACHED_FILTERS);
+  }
+
+  @Test
+  void shouldReadIgnoreFilesAgainOnceChanged(@TempDir final Path tempDir)
+      throws IOException {
+    Path file = tempDir.resolve(".nftignore");
+    Files.write(file, List.of("work/**", "", "  *.log  "));
+    List<String> globs = IgnoreFileCache.readGlobs(file.toString());
+
+    assertEquals(List.of("work/**", "*.log"), globs);
+    assertSame(globs, IgnoreFileCache.readGlobs(
+        tempDir.resolve("./.nftignore").toString()));
+
+    Files.write(file, List.of("*.txt"));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    assertEquals(List.of("*.txt"), IgnoreFileCache.readGlobs(file.toString()));
+  }
+
+  @Test
+  void shouldRejectInvalidGlobs() {
+    assertThrows(
+        PatternSyntaxException.class,
+        () -> GlobFilter.of(List.of("{a,{b}}"), List.of()));
+    assertThrows(
+        PatternSyntaxException.class,
+        () -> GlobFilter.of(List.of("**"), List.of("[a/b]")));
+  }
+
+  private static boolean matchesAny(
+      final List<String> globs,
+      final Path path) {
+    for (String glob : globs) {
+      PathMatcher matcher =
+          FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      if (matcher.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
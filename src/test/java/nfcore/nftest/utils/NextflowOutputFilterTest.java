@@ -0,0 +1,340 @@
+package nfcore.nftest.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NextflowOutputFilterTest {
+
+  private static final String OUTPUT = String.join("\n",
+      "N E X T F L O W  ~  version 24.04.5",
+      "Launching `main.nf` [amazing_mercury] DSL2 - revision: 0123456789",
+      "[ab/cdef01] Submitted process > FASTQC (sample_2)",
+      "[12/345678] Submitted process > FASTQC (sample_1)",
+      "Started at 2024-09-30 13:10:16 by amazing_mercury",
+      "work dir: 0123456789abcdef0123456789abcdef",
+      "profile: test,docker",
+      "nf-core/rnaseq 3.14.0",
+      "",
+      "WARN: something");
+
+  @Test
+  void shouldReplaceUnstablePatterns() {
+    assertEquals(
+      List.of(
+        "N E X T F L O W  ~  version [VERSION]",
+        "Launching `main.nf` [RUN_NAME] DSL2 - revision: [REVISION]",
+        "Started at [TIMESTAMP] by [RUN_NAME]",
+        "work dir: [NFT_HASH]",
+        "profile: test,[CONTAINER]",
+        "nf-core/rnaseq [VERSION]",
+        "WARN: something",
+        "[NXF_HASH] Submitted process > FASTQC (sample_1)",
+        "[NXF_HASH] Submitted process > FASTQC (sample_2)"
+      ),
+      new NextflowOutputFilter().filter(OUTPUT)
+    );
+  }
+
+  @Test
+  void shouldBeReusableBetweenCalls() {
+    Map<String, Object> options = new LinkedHashMap<>();
+    options.put("sorted", false);
+    options.put("ignore", List.of("Submitted process"));
+    NextflowOutputFilter filter = new NextflowOutputFilter(options);
+
+    List<String> first = filter.filter(OUTPUT);
+    List<String> second = filter.filter(OUTPUT);
+
+    assertEquals(first, second);
+    assertEquals(Methods.filterNextflowOutput(OUTPUT, options), first);
+  }
+
+  @Test
+  void shouldStripAnsiCodesUnlessKept() {
+    String line = "\u001B[32mlog.info message\u001B[0m";
+    assertEquals(
+      List.of("log.info message"),
+      new NextflowOutputFilter().filter(line)
+    );
+    assertEquals(
+      List.of(line),
+      new NextflowOutputFilter(Map.of("keepAnsi", true)).filter(line)
+    );
+  }
+
+  @Test
+  void shouldApplyContainerKeywordsInOrder() {
+    assertEquals(
+      "cond[CONTAINER]",
+      new NextflowOutputFilter().filterLine("condapptainer", null)
+    );
+  }
+
+  @Test
+  void shouldFilterFilesReadersAndStreamsLikeStrings(
+      @TempDir final Path tempDir) throws IOException {
+    String output = OUTPUT + "\r\nlast line without newline\r";
+    Path log = tempDir.resolve(".nextflow.log");
+    Files.write(log, output.getBytes(StandardCharsets.UTF_8));
+    NextflowOutputFilter filter = new NextflowOutputFilter();
+    List<String> expected = filter.filter(output);
+
+    assertEquals(expected, filter.filter(log));
+    assertEquals(expected, filter.filter(new StringReader(output)));
+    assertEquals(expected, filter.filter(new ByteArrayInputStream(
+        output.getBytes(StandardCharsets.UTF_8))));
+    assertEquals(expected, Methods.filterNextflowOutput(log));
+  }
+
+  @Test
+  void shouldFilterMappedFilesLikeStreams(@TempDir final Path tempDir)
+      throws IOException {
+    String output = OUTPUT + "\n\u001B[31mERROR ~ café\u001B[0m\r\n"
+        + "\u001B[1mWARN:\u001B[x nope\u001B[\nlast";
+    Path log = tempDir.resolve(".nextflow.log");
+    Files.write(log, output.getBytes(StandardCharsets.UTF_8));
+    Map<String, Object> options = new LinkedHashMap<>();
+    options.put("ignore", List.of("sample_2", "é"));
+    options.put("include", List.of("Submitted", "WARN", "[32"));
+    for (boolean keepAnsi : List.of(false, true)) {
+      options.put("keepAnsi", keepAnsi);
+      options.remove("mmap");
+      List<String> expected = new NextflowOutputFilter(options).filter(output);
+      options.put("mmap", true);
+      assertEquals(expected, new NextflowOutputFilter(options).filter(log));
+    }
+
+    // Lines crossing the end of a tiny window are read again
+    List<String> lines = new ArrayList<>();
+    MappedLogReader.forEachSelectedLine(log, null, true, lines::add, 7);
+    assertEquals(List.of(output.split("\n")), lines);
+  }
+
+  @Test
+  void shouldDigestFilteredLinesWithoutKeepingThem() throws Exception {
+    for (boolean sorted : List.of(true, false)) {
+      Map<String, Object> options = new LinkedHashMap<>();
+      options.put("sorted", sorted);
+      List<String> filtered = Methods.filterNextflowOutput(OUTPUT, options);
+
+      Map<String, Object> digest =
+          Methods.filterNextflowOutputDigest(OUTPUT, options);
+      assertEquals((long) filtered.size(), digest.get("lineCount"));
+      assertEquals(
+        Methods.listToMD5(new ArrayList<>(filtered)),
+        digest.get("md5")
+      );
+    }
+  }
+
+  @Test
+  void shouldSortAndDeduplicateAcrossSpilledRuns() {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      lines.add("line " + (i * 7919 % 500));
+    }
+    List<String> expected = new ArrayList<>(new TreeSet<>(lines));
+
+    ExternalLineSorter sorter = new ExternalLineSorter(1024);
+    lines.forEach(sorter::add);
+    // Merged in several passes
+    assertTrue(sorter.getRunCount() > ExternalLineSorter.MAX_MERGED_RUNS);
+    List<String> sorted = new ArrayList<>();
+    sorter.forEachSorted(sorted::add);
+    assertEquals(expected, sorted);
+    assertEquals(0, sorter.getRunCount());
+  }
+
+  @Test
+  void shouldKeepMalformedTextInSpilledRuns() {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      lines.add("line " + i + " \uD800 " + (i % 2));
+      lines.add("line " + i + " ? " + (i % 2));
+    }
+    List<String> expected = new ArrayList<>(new TreeSet<>(lines));
+
+    ExternalLineSorter sorter = new ExternalLineSorter(512);
+    lines.forEach(sorter::add);
+    assertTrue(sorter.getRunCount() > 1);
+    List<String> sorted = new ArrayList<>();
+    sorter.forEachSorted(sorted::add);
+    assertEquals(expected, sorted);
+  }
+
+  @Test
+  void shouldSortWithinMemoryLimitLikeInMemory() {
+    StringBuilder output = new StringBuilder(OUTPUT);
+    for (int i = 0; i < 300; i++) {
+      output.append("\nWARN: warning ").append(i % 97)
+          .append("\nplain line ").append(i % 3);
+    }
+    List<String> expected = new NextflowOutputFilter().filter(output);
+
+    List<String> spilled = new NextflowOutputFilter(
+        Map.of("sortMemoryLimit", 512)).filter(output);
+    assertEquals(expected, spilled);
+  }
+
+  @Test
+  void shouldFollowGrowingAndRotatedLogs(@TempDir final Path tempDir)
+      throws Exception {
+    Path log = tempDir.resolve(".nextflow.log");
+    NextflowOutputFilter filter =
+        new NextflowOutputFilter(Map.of("pollInterval", 5));
+    NextflowOutputFollower<List<String>> follower = filter.follow(log);
+    NextflowOutputFollower<TreeMap<String, Object>> digest =
+        filter.followDigest(log);
+
+    // Content of a previous run, replaced by the new log
+    Files.write(log, "stale run\n".getBytes(StandardCharsets.UTF_8));
+    Thread.sleep(50);
+    Path rotated = tempDir.resolve(".nextflow.log.1");
+    Files.move(log, rotated);
+    Files.write(tempDir.resolve("new.log"), new byte[0]);
+    Files.move(tempDir.resolve("new.log"), log);
+    String[] parts = OUTPUT.split("(?<=mercury)");
+    for (String part : parts) {
+      Files.write(log, part.getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.APPEND);
+      Thread.sleep(20);
+    }
+
+    List<String> expected = filter.filter(OUTPUT);
+    assertEquals(expected, follower.result());
+    assertEquals(filter.digest(OUTPUT), digest.result());
+  }
+
+  @Test
+  void shouldReportFailuresToStartFollowing(@TempDir final Path tempDir) {
+    NextflowOutputFollower<List<String>> follower =
+        NextflowOutputFollower.start(
+          new NextflowOutputFilter(), tempDir.resolve(".nextflow.log"),
+          () -> {
+            throw new IllegalStateException("no collector");
+          },
+          5);
+
+    IllegalStateException failure =
+        assertThrows(IllegalStateException.class, follower::result);
+    assertEquals("no collector", failure.getMessage());
+  }
+
+  @Test
+  void shouldFilterInParallelLikeSequentially() {
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      output.append("[ab/cdef01] Submitted process > FOO (").append(i)
+          .append(") by amazing_mercury\n");
+      if (i == 123) {
+        output.append("\u001B[1mLaunching\u001B[0m `main.nf` ")
+            .append("[amazing_mercury] DSL2\n");
+      }
+    }
+    Map<String, Object> options = new LinkedHashMap<>();
+    options.put("sorted", false);
+    List<String> expected =
+        new NextflowOutputFilter(options).filter(output.toString());
+
+    options.put("parallel", true);
+    options.put("chunkSize", 7);
+    assertEquals(
+      expected,
+      new NextflowOutputFilter(options).filter(output.toString())
+    );
+  }
+
+  @Test
+  void shouldReplaceLongestPathPrefixesInOnePass() {
+    PathPrefixReplacer replacer = new PathPrefixReplacer(List.of(
+        "/home/user", "/home/user/.nextflow", "/work", "", "/work"));
+
+    assertEquals(
+      List.of("/home/user/.nextflow", "/home/user", "/work"),
+      replacer.getPrefixes()
+    );
+    assertEquals(
+      "[PATH]/assets and [PATH]/x/y and [PATH] and /homeless",
+      replacer.replace(
+        "/home/user/.nextflow/assets and /work/x/y and /home/user"
+        + " and /homeless")
+    );
+  }
+
+  @Test
+  void shouldRemoveAdditionalPatterns() {
+    String output = String.join("\n",
+        "Running on node-042 at 2024-09-30 13:10:16",
+        "samplesheet_20240930.csv",
+        "stable line");
+    List<String> additionalPatterns =
+        List.of(" on node-\\d+", "samplesheet_\\d{8}\\.csv");
+
+    assertEquals(
+      List.of("Running at [TIMESTAMP]", "stable line"),
+      Methods.filterNextflowOutput(output, additionalPatterns)
+    );
+  }
+
+  @Test
+  void shouldKeepBackreferencesOfEachAdditionalPattern() {
+    assertEquals(
+      List.of("keep  here"),
+      Methods.filterNextflowOutput(
+        "keep aa here", List.of("(x)", "(a)\\1"))
+    );
+    // Digits after a reference stay literal, as in the pattern alone
+    assertEquals(
+      List.of("keep  here"),
+      Methods.filterNextflowOutput(
+        "keep aa2 here", List.of("(x)(y)", "(a)\\12"))
+    );
+    // The leftmost match wins, whatever the order of the patterns
+    assertEquals(
+      List.of(" here"),
+      Methods.filterNextflowOutput("ab here", List.of("b", "ab"))
+    );
+    assertEquals(
+      "(?:\\3)[\\1]\\Q\\1\\E\\\\1(?!)",
+      NextflowOutputFilter.renumberBackreferences(
+        "\\1[\\1]\\Q\\1\\E\\\\1\\2", 2, 1)
+    );
+  }
+
+  @Test
+  void shouldSelectLinesWithOverlappingIgnoreAndIncludeStrings() {
+    SubstringMatcher matcher = new SubstringMatcher(
+        List.of("abab", "Staging"),
+        List.of("bab", "ERROR", "é"));
+
+    assertTrue(matcher.isSelected("xbabx"));
+    assertTrue(matcher.isSelected("ERROR ~ failed"));
+    assertTrue(matcher.isSelected("café"));
+    assertFalse(matcher.isSelected("aababx"));
+    assertFalse(matcher.isSelected("Staging foreign file: ERROR"));
+    assertFalse(matcher.isSelected("no match"));
+    assertTrue(new SubstringMatcher(List.of(), List.of(""))
+        .isSelected("anything"));
+    assertFalse(new SubstringMatcher(List.of(""), List.of())
+        .isSelected("anything"));
+  }
+}